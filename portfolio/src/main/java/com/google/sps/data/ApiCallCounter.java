@@ -0,0 +1,79 @@
+package com.google.sps.data;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.ApiProxy.ApiConfig;
+import com.google.apphosting.api.ApiProxy.ApiProxyException;
+import com.google.apphosting.api.ApiProxy.Delegate;
+import com.google.apphosting.api.ApiProxy.Environment;
+import com.google.apphosting.api.ApiProxy.LogRecord;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+/*
+ * Counts the App Engine API calls made by this instance, e.g. datastore_v3.Get. Every Datastore,
+ * Users or other API call goes through the ApiProxy delegate, so this sees all of them, from any
+ * thread, without wrapping each service.
+ */
+public class ApiCallCounter implements Delegate<Environment> {
+  private final Delegate<Environment> delegate;
+  private final RequestMetrics metrics;
+
+  private ApiCallCounter(Delegate<Environment> delegate, RequestMetrics metrics) {
+    this.delegate = delegate;
+    this.metrics = metrics;
+  }
+
+  /***
+   * Starts counting API calls into the metrics. Returns null, and counts nothing, if there is no
+   * API proxy, i.e. when not running on App Engine.
+   */
+  @SuppressWarnings("unchecked")
+  public static ApiCallCounter install(RequestMetrics metrics) {
+    Delegate<Environment> delegate = ApiProxy.getDelegate();
+    if (delegate == null) {
+      return null;
+    }
+    ApiCallCounter counter = new ApiCallCounter(delegate, metrics);
+    ApiProxy.setDelegate(counter);
+    return counter;
+  }
+
+  /***
+   * Stops counting, putting back the delegate that was there before.
+   */
+  public void uninstall() {
+    if (ApiProxy.getDelegate() == this) {
+      ApiProxy.setDelegate(delegate);
+    }
+  }
+
+  @Override
+  public byte[] makeSyncCall(Environment environment, String packageName, String methodName,
+      byte[] request) throws ApiProxyException {
+    metrics.countApiCall(packageName, methodName);
+    return delegate.makeSyncCall(environment, packageName, methodName, request);
+  }
+
+  @Override
+  public Future<byte[]> makeAsyncCall(Environment environment, String packageName,
+      String methodName, byte[] request, ApiConfig apiConfig) {
+    metrics.countApiCall(packageName, methodName);
+    return delegate.makeAsyncCall(environment, packageName, methodName, request, apiConfig);
+  }
+
+  @Override
+  public void log(Environment environment, LogRecord record) {
+    delegate.log(environment, record);
+  }
+
+  @Override
+  public void flushLogs(Environment environment) {
+    delegate.flushLogs(environment);
+  }
+
+  @Override
+  public List<Thread> getRequestThreads(Environment environment) {
+    return delegate.getRequestThreads(environment);
+  }
+}
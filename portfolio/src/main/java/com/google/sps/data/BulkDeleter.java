@@ -0,0 +1,88 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.LongConsumer;
+
+/*
+ * Deletes every entity of a kind. Keys are read page by page with a keys-only query, and each page
+ * is deleted with one multi-key call. Up to MAX_IN_FLIGHT deletes run in parallel while the next
+ * pages are read, so a large kind takes a few round trips per thousand entities instead of one per
+ * entity.
+ */
+public class BulkDeleter {
+  // Datastore accepts at most 500 keys per delete call.
+  final private static int PAGE_SIZE = 500;
+  final private static int MAX_IN_FLIGHT = 4;
+
+  private final AsyncDatastoreService datastore;
+
+  public BulkDeleter(AsyncDatastoreService datastore) {
+    this.datastore = datastore;
+  }
+
+  /***
+   * Deletes all entities of the kind and returns how many were deleted. onDeleted is called with
+   * the size of each page once it is deleted.
+   */
+  public long deleteAll(String kind, LongConsumer onDeleted) {
+    PreparedQuery pq = datastore.prepare(new Query(kind).setKeysOnly());
+    Deque<Future<Void>> inFlight = new ArrayDeque<>();
+    Deque<Integer> inFlightSizes = new ArrayDeque<>();
+    long numDeleted = 0;
+    Cursor cursor = null;
+    while (true) {
+      FetchOptions options = FetchOptions.Builder.withLimit(PAGE_SIZE);
+      if (cursor != null) {
+        options.startCursor(cursor);
+      }
+      QueryResultList<Entity> page = pq.asQueryResultList(options);
+      if (page.isEmpty()) {
+        break;
+      }
+      List<Key> keys = new ArrayList<>(page.size());
+      for (Entity entity : page) {
+        keys.add(entity.getKey());
+      }
+      if (inFlight.size() >= MAX_IN_FLIGHT) {
+        numDeleted += await(inFlight.poll(), inFlightSizes.poll(), onDeleted);
+      }
+      inFlight.add(datastore.delete(keys));
+      inFlightSizes.add(keys.size());
+      if (page.size() < PAGE_SIZE) {
+        break;
+      }
+      cursor = page.getCursor();
+    }
+    while (!inFlight.isEmpty()) {
+      numDeleted += await(inFlight.poll(), inFlightSizes.poll(), onDeleted);
+    }
+    return numDeleted;
+  }
+
+  private static long await(Future<Void> delete, int size, LongConsumer onDeleted) {
+    try {
+      delete.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while deleting.", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Could not delete entities.", e.getCause());
+    }
+    onDeleted.accept(size);
+    return size;
+  }
+}
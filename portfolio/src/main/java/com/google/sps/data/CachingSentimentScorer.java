@@ -0,0 +1,81 @@
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Remembers the scores of recently scored texts, so that repeated comments like "great!" do not
+ * call the underlying scorer again. Texts are compared after normalizing case and whitespace. The
+ * cache keeps at most `capacity` texts, evicting the least recently used, and forgets a score after
+ * `ttlMs` milliseconds.
+ */
+public class CachingSentimentScorer implements SentimentScorer {
+  private final SentimentScorer scorer;
+  private final long ttlMs;
+  private final Map<String, CachedScore> cache;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  private static class CachedScore {
+    final float score;
+    final long scoredTime;
+
+    CachedScore(float score, long scoredTime) {
+      this.score = score;
+      this.scoredTime = scoredTime;
+    }
+  }
+
+  public CachingSentimentScorer(SentimentScorer scorer, int capacity, long ttlMs) {
+    this.scorer = scorer;
+    this.ttlMs = ttlMs;
+    // An access-ordered LinkedHashMap evicts the least recently used entry first.
+    this.cache = new LinkedHashMap<String, CachedScore>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedScore> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  @Override
+  public float score(String text) throws IOException {
+    String key = normalize(text);
+    long now = System.currentTimeMillis();
+    CachedScore cached;
+    synchronized (cache) {
+      cached = cache.get(key);
+    }
+    if (cached != null && now - cached.scoredTime < ttlMs) {
+      hits.increment();
+      return cached.score;
+    }
+    misses.increment();
+    // Score outside the lock so that a slow remote call does not block cache hits.
+    float score = scorer.score(text);
+    synchronized (cache) {
+      cache.put(key, new CachedScore(score, now));
+    }
+    return score;
+  }
+
+  @Override
+  public void close() {
+    scorer.close();
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  private static String normalize(String text) {
+    return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+  }
+}
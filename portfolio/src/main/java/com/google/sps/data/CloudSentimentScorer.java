@@ -0,0 +1,30 @@
+package com.google.sps.data;
+
+import com.google.cloud.language.v1.Document;
+import com.google.cloud.language.v1.LanguageServiceClient;
+
+import java.io.IOException;
+
+/*
+ * Scores sentiment with the Natural Language API. One client is created up front and shared by all
+ * threads, since creating a client is expensive and the client is thread-safe.
+ */
+public class CloudSentimentScorer implements SentimentScorer {
+  private final LanguageServiceClient languageService;
+
+  public CloudSentimentScorer() throws IOException {
+    this.languageService = LanguageServiceClient.create();
+  }
+
+  @Override
+  public float score(String text) throws IOException {
+    Document doc =
+        Document.newBuilder().setContent(text).setType(Document.Type.PLAIN_TEXT).build();
+    return languageService.analyzeSentiment(doc).getDocumentSentiment().getScore();
+  }
+
+  @Override
+  public void close() {
+    languageService.close();
+  }
+}
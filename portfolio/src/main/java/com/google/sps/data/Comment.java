@@ -1,17 +1,69 @@
 package com.google.sps.data;
 
+import com.google.appengine.api.datastore.Entity;
+import java.util.Comparator;
+
 public class Comment {
+  public static final Comparator<Comment> BY_LIKES_DESCENDING =
+      Comparator.comparingLong((Comment comment) -> comment.likeCount).reversed();
+  public static final Comparator<Comment> BY_HOT_DESCENDING =
+      Comparator.comparingDouble((Comment comment) -> comment.getHotScore()).reversed();
+  // A comment needs twice as many likes (plus one) to be as hot as one posted this much later.
+  final private static double HOT_HALF_LIFE_MS = 24 * 60 * 60 * 1000;
+
   public String content;
   public long id;
   public long likeCount;
   public String email;
-  public float sentimentScore;
+  public long timestamp;
+  // Null until the sentiment of the comment has been scored.
+  public Float sentimentScore;
 
-  public Comment(String content, long id, long likeCount, String email, float sentimentScore) {
+  public Comment(String content, long id, long likeCount, String email, long timestamp,
+      Float sentimentScore) {
     this.content = content;
     this.id = id;
     this.likeCount = likeCount;
     this.email = email;
+    this.timestamp = timestamp;
     this.sentimentScore = sentimentScore;
   }
-}
\ No newline at end of file
+
+  public double getHotScore() {
+    return getHotScore(likeCount, timestamp);
+  }
+
+  /***
+   * Returns the likes of a comment decayed by its age. Rather than shrinking old comments' scores
+   * as time passes, newer comments start higher, by one per HOT_HALF_LIFE_MS. The order of two
+   * comments therefore only changes when they get likes, so the score can be stored and indexed.
+   */
+  public static double getHotScore(long likeCount, long timestamp) {
+    return Math.log1p(likeCount) / Math.log(2) + timestamp / HOT_HALF_LIFE_MS;
+  }
+
+  /***
+   * Creates a comment from a "Comment" entity. The like count is passed in since the entity's
+   * likeCount property may lag behind the like counter shards.
+   */
+  public static Comment fromEntity(Entity entity, long likeCount) {
+    // Datastore stores float numbers as double numbers
+    Double sentimentScore = (Double) entity.getProperty("sentimentScore");
+    return new Comment((String) entity.getProperty("content"), entity.getKey().getId(),
+        likeCount, (String) entity.getProperty("email"), getTimestamp(entity),
+        sentimentScore == null ? null : (float) (double) sentimentScore);
+  }
+
+  /***
+   * Sets the likeCount of a "Comment" entity, along with its hotScore, which is derived from it.
+   */
+  public static void setLikeCount(Entity entity, long likeCount) {
+    entity.setProperty("likeCount", likeCount);
+    entity.setProperty("hotScore", getHotScore(likeCount, getTimestamp(entity)));
+  }
+
+  private static long getTimestamp(Entity entity) {
+    Object timestamp = entity.getProperty("timestamp");
+    return timestamp == null ? 0 : (long) timestamp;
+  }
+}
@@ -0,0 +1,44 @@
+package com.google.sps.data;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+ * Forwards comment writes to every registered listener.
+ */
+public class CommentEvents implements CommentListener {
+  private final List<CommentListener> listeners = new CopyOnWriteArrayList<>();
+
+  public void addListener(CommentListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void onCommentAdded(Comment comment) {
+    for (CommentListener listener : listeners) {
+      listener.onCommentAdded(comment);
+    }
+  }
+
+  @Override
+  public void onCommentsDeleted() {
+    for (CommentListener listener : listeners) {
+      listener.onCommentsDeleted();
+    }
+  }
+
+  @Override
+  public void onLikesAdded(Map<Long, Long> likeDeltas, long writeStartTime) {
+    for (CommentListener listener : listeners) {
+      listener.onLikesAdded(likeDeltas, writeStartTime);
+    }
+  }
+
+  @Override
+  public void onSentimentScored(Map<Long, Float> sentimentScores) {
+    for (CommentListener listener : listeners) {
+      listener.onSentimentScored(sentimentScores);
+    }
+  }
+}
@@ -0,0 +1,254 @@
+package com.google.sps.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * In-memory copy of the first comments of a ranking, kept as a JSON array that is serialized once
+ * per change. The JSON of the top `limit` comments is a prefix of the whole array, so any limit is
+ * served by copying bytes. The column-oriented JSON of Json.toColumnsJson is not, so it is built
+ * the first time each limit is asked for and kept with the version it belongs to.
+ *
+ * Writes on this instance update the feed in place. Writes it cannot apply locally (a comment
+ * outside the feed overtaking one inside it) drop the feed, and it is reloaded from the store on
+ * the next read. Since other instances write too, the feed is also reloaded after MAX_AGE_MS.
+ * Writes are stored before the feed hears of them, so a reload in between may already hold them:
+ * a comment that is in the feed already is not added again, and likes stored since before the
+ * feed was loaded drop it, as it cannot tell whether it counts them.
+ *
+ * The ETag of a response is a hash of the JSON it sends, computed once per change, so that clients
+ * can poll without the feed being read or serialized again. Since it only depends on the comments,
+ * every instance gives the same ETag to the same feed, and a client keeps its cached copy when its
+ * requests land on another instance or after a restart.
+ */
+public class CommentFeed implements CommentListener {
+  public static final int SIZE = 50;
+  final private static long MAX_AGE_MS = 10000;
+
+  private final CommentStore commentStore;
+  private final Ranking ranking;
+  // Null when the feed has to be reloaded.
+  private volatile Snapshot snapshot;
+
+  /*
+   * An immutable version of the feed. json holds the whole array, prefixEnds[k] is the length of
+   * the JSON of the first k comments without the closing bracket, and prefixHashes[k] is the hash
+   * of those bytes.
+   */
+  public static class Snapshot {
+    private final List<Comment> comments;
+    private final byte[] json;
+    private final int[] prefixEnds;
+    // Count -> Json.toColumnsJson of the first `count` comments, once asked for.
+    private final AtomicReferenceArray<byte[]> columnsJson;
+    private final long[] prefixHashes;
+    // When the comments were last read from the store.
+    private final long loadedTime;
+
+    private Snapshot(List<Comment> comments, byte[] json, int[] prefixEnds, long[] prefixHashes,
+        long loadedTime) {
+      this.comments = comments;
+      this.json = json;
+      this.prefixEnds = prefixEnds;
+      this.prefixHashes = prefixHashes;
+      this.columnsJson = new AtomicReferenceArray<>(comments.size() + 1);
+      this.loadedTime = loadedTime;
+    }
+
+    /***
+     * Returns the UTF-8 JSON array of the top `limit` comments, 0 <= limit <= SIZE.
+     */
+    public byte[] getJson(int limit) {
+      int count = Math.min(limit, comments.size());
+      if (count == comments.size()) {
+        return json;
+      }
+      byte[] prefix = new byte[prefixEnds[count] + 1];
+      System.arraycopy(json, 0, prefix, 0, prefixEnds[count]);
+      prefix[prefix.length - 1] = ']';
+      return prefix;
+    }
+
+    /***
+     * Returns the top `limit` comments as column-oriented UTF-8 JSON, 0 <= limit <= SIZE.
+     */
+    public byte[] getColumnsJson(int limit) {
+      int count = Math.min(limit, comments.size());
+      byte[] columns = columnsJson.get(count);
+      if (columns == null) {
+        // Racing threads build equal arrays, so whichever is kept does not matter.
+        columns = Json.toColumnsJson(comments.subList(0, count));
+        columnsJson.set(count, columns);
+      }
+      return columns;
+    }
+
+    /***
+     * Returns the strong ETag of getJson(limit), quotes included.
+     */
+    public String getETag(int limit) {
+      return "\"" + getPrefixHash(limit) + "\"";
+    }
+
+    /***
+     * Returns the strong ETag of getColumnsJson(limit), quotes included.
+     */
+    public String getColumnsETag(int limit) {
+      return "\"" + getPrefixHash(limit) + "-columns\"";
+    }
+
+    private String getPrefixHash(int limit) {
+      return Long.toHexString(prefixHashes[Math.min(limit, comments.size())]);
+    }
+  }
+
+  public CommentFeed(CommentStore commentStore, Ranking ranking) {
+    this.commentStore = commentStore;
+    this.ranking = ranking;
+  }
+
+  /***
+   * Returns the UTF-8 JSON array of the top `limit` comments, 0 <= limit <= SIZE.
+   */
+  public byte[] getJson(int limit) {
+    return getSnapshot().getJson(limit);
+  }
+
+  @Override
+  public synchronized void onCommentAdded(Comment comment) {
+    Snapshot current = snapshot;
+    if (current == null) {
+      return;
+    }
+    for (Comment feedComment : current.comments) {
+      if (feedComment.id == comment.id) {
+        // Loaded from the store after the comment was stored.
+        return;
+      }
+    }
+    List<Comment> comments = new ArrayList<>(current.comments);
+    comments.add(comment);
+    comments.sort(ranking.getOrder());
+    if (comments.size() > SIZE) {
+      // The feed holds the first SIZE comments, so whatever falls off the end is not among them.
+      if (comments.remove(SIZE) == comment) {
+        return;
+      }
+    }
+    snapshot = serialize(comments, current.loadedTime);
+  }
+
+  @Override
+  public synchronized void onCommentsDeleted() {
+    snapshot = serialize(new ArrayList<>(), System.currentTimeMillis());
+  }
+
+  @Override
+  public synchronized void onLikesAdded(Map<Long, Long> likeDeltas, long writeStartTime) {
+    Snapshot current = snapshot;
+    if (current == null) {
+      return;
+    }
+    if (current.loadedTime >= writeStartTime) {
+      // The likes may have been read with the feed already.
+      snapshot = null;
+      return;
+    }
+    List<Comment> comments = new ArrayList<>();
+    int numUpdated = 0;
+    boolean isUnliked = false;
+    for (Comment comment : current.comments) {
+      Long delta = likeDeltas.get(comment.id);
+      if (delta == null) {
+        comments.add(comment);
+      } else {
+        comments.add(new Comment(comment.content, comment.id, comment.likeCount + delta,
+            comment.email, comment.timestamp, comment.sentimentScore));
+        numUpdated++;
+        isUnliked |= delta < 0;
+      }
+    }
+    if ((numUpdated < likeDeltas.size() || isUnliked) && comments.size() >= SIZE) {
+      // Some comment outside the feed got likes, or one in it lost some, so a comment outside
+      // may now belong in it.
+      snapshot = null;
+      return;
+    }
+    comments.sort(ranking.getOrder());
+    snapshot = serialize(comments, current.loadedTime);
+  }
+
+  @Override
+  public synchronized void onSentimentScored(Map<Long, Float> sentimentScores) {
+    Snapshot current = snapshot;
+    if (current == null) {
+      return;
+    }
+    List<Comment> comments = new ArrayList<>();
+    for (Comment comment : current.comments) {
+      Float score = sentimentScores.get(comment.id);
+      comments.add(score == null ? comment
+          : new Comment(comment.content, comment.id, comment.likeCount, comment.email,
+              comment.timestamp, score));
+    }
+    snapshot = serialize(comments, current.loadedTime);
+  }
+
+  /***
+   * Returns the current version of the feed, reloading it from the store if needed.
+   */
+  public Snapshot getSnapshot() {
+    Snapshot current = snapshot;
+    if (current != null && System.currentTimeMillis() - current.loadedTime < MAX_AGE_MS) {
+      return current;
+    }
+    return reload();
+  }
+
+  private synchronized Snapshot reload() {
+    Snapshot current = snapshot;
+    if (current != null && System.currentTimeMillis() - current.loadedTime < MAX_AGE_MS) {
+      // Another thread reloaded it while we were waiting.
+      return current;
+    }
+    long loadedTime = System.currentTimeMillis();
+    List<Comment> comments = commentStore.getTopComments(ranking, SIZE);
+    snapshot = serialize(comments, loadedTime);
+    return snapshot;
+  }
+
+  private Snapshot serialize(List<Comment> comments, long loadedTime) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int[] prefixEnds = new int[comments.size() + 1];
+    out.write('[');
+    prefixEnds[0] = out.size();
+    for (int i = 0; i < comments.size(); i++) {
+      if (i > 0) {
+        out.write(',');
+      }
+      byte[] json = Json.GSON.toJson(comments.get(i)).getBytes(StandardCharsets.UTF_8);
+      out.write(json, 0, json.length);
+      prefixEnds[i + 1] = out.size();
+    }
+    out.write(']');
+    byte[] json = out.toByteArray();
+    // 64-bit FNV-1a, with the hash of each prefix taken on the way.
+    long[] prefixHashes = new long[prefixEnds.length];
+    long hash = 0xcbf29ce484222325L;
+    int end = 0;
+    for (int i = 0; i < prefixEnds.length; i++) {
+      for (; end < prefixEnds[i]; end++) {
+        hash ^= json[end] & 0xff;
+        hash *= 0x100000001b3L;
+      }
+      prefixHashes[i] = hash;
+    }
+    return new Snapshot(Collections.unmodifiableList(comments), json, prefixEnds, prefixHashes,
+        loadedTime);
+  }
+}
@@ -0,0 +1,25 @@
+package com.google.sps.data;
+
+import java.util.Map;
+
+/*
+ * Gets notified of every write to the comments, so that in-memory views of them can be kept up to
+ * date without going back to Datastore.
+ */
+public interface CommentListener {
+  void onCommentAdded(Comment comment);
+
+  void onCommentsDeleted();
+
+  /***
+   * Called with comment ID -> number of likes added, negative if more were taken back, once those
+   * likes are stored. writeStartTime is when storing them began, so that a view read from the
+   * store after that, which may count them already, can tell.
+   */
+  void onLikesAdded(Map<Long, Long> likeDeltas, long writeStartTime);
+
+  /***
+   * Called with comment ID -> sentiment score, once the scores of new comments are stored.
+   */
+  void onSentimentScored(Map<Long, Float> sentimentScores);
+}
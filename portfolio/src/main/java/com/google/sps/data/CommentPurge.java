@@ -0,0 +1,81 @@
+package com.google.sps.data;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Deletes all comments and their likes, either on the caller's thread or as a
+ * background job whose progress can be polled. Only one purge runs at a time; asking for another
+ * while one is running returns the progress of the running one.
+ */
+public class CommentPurge {
+  private final CommentStore commentStore;
+  private final CommentListener listener;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "comment-purge");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private final AtomicLong deletedComments = new AtomicLong();
+  private volatile boolean isRunning = false;
+  private volatile String error = null;
+
+  public CommentPurge(CommentStore commentStore, CommentListener listener) {
+    this.commentStore = commentStore;
+    this.listener = listener;
+  }
+
+  /***
+   * Purges on the caller's thread and returns the final progress.
+   */
+  public PurgeProgress run() {
+    synchronized (this) {
+      if (isRunning) {
+        return getProgress();
+      }
+      begin();
+    }
+    purge();
+    return getProgress();
+  }
+
+  /***
+   * Starts a purge in the background and returns its initial progress.
+   */
+  public PurgeProgress start() {
+    synchronized (this) {
+      if (isRunning) {
+        return getProgress();
+      }
+      begin();
+    }
+    executor.execute(this::purge);
+    return getProgress();
+  }
+
+  public PurgeProgress getProgress() {
+    return new PurgeProgress(deletedComments.get(), isRunning, error);
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private void begin() {
+    isRunning = true;
+    error = null;
+    deletedComments.set(0);
+  }
+
+  private void purge() {
+    try {
+      commentStore.deleteAll(deletedComments::addAndGet);
+      listener.onCommentsDeleted();
+    } catch (RuntimeException e) {
+      error = e.getMessage();
+    } finally {
+      isRunning = false;
+    }
+  }
+}
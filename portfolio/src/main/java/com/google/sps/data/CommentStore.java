@@ -0,0 +1,101 @@
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongConsumer;
+
+/*
+ * Storage for comments and their like counts. DatastoreCommentStore is the real one;
+ * InMemoryCommentStore runs without any external service, for local load tests.
+ */
+public interface CommentStore {
+  /*
+   * Receives the comments of a page one by one, as they are read.
+   */
+  interface CommentConsumer {
+    void accept(Comment comment) throws IOException;
+  }
+
+  /*
+   * The outcome of setLikes.
+   */
+  class LikeChanges {
+    // Comment ID -> change of its number of likes, already added to its like count.
+    public final Map<Long, Long> likeDeltas = new HashMap<>();
+    // The likes that could not be recorded because of contention or a failed write, to be retried
+    // later. None of them changed anything.
+    public final Map<Long, Map<String, Boolean>> failed = new HashMap<>();
+  }
+
+  /***
+   * Stores a new comment with no likes and no sentiment score yet, and returns it with its ID.
+   */
+  Comment create(String content, String email, long timestamp);
+
+  /***
+   * Returns the first `limit` comments in the given ranking, with exact like counts.
+   */
+  List<Comment> getTopComments(Ranking ranking, int limit);
+
+  /***
+   * Passes up to pageSize comments in the given ranking to the consumer as they are read, starting
+   * after the given cursor (null for the first page). Returns the cursor of the next page, or null
+   * if this was the last page. Throws IllegalArgumentException if the cursor is not valid.
+   */
+  String getPage(Ranking ranking, int pageSize, String cursor, CommentConsumer consumer)
+      throws IOException;
+
+  /***
+   * Adds comment ID -> number of likes, negative for unlikes. Likes of comments that do not exist
+   * are dropped. Returns the likes that could not be stored, to be retried later. Only throws if
+   * nothing was stored.
+   */
+  Map<Long, Long> incrementLikes(Map<Long, Long> likeDeltas);
+
+  /***
+   * Records comment ID -> user ID -> whether the user likes the comment. Records that already say
+   * so are left alone, so repeating a like or an unlike changes nothing. Likes of comments that do
+   * not exist are dropped. The like counts change in the same write as the records, so a like is
+   * counted exactly when it is recorded; the changes are returned for listeners.
+   */
+  LikeChanges setLikes(Map<Long, Map<String, Boolean>> likes);
+
+  /***
+   * Keeps comment ID -> user ID -> whether the user likes the comment, for likes that could not be
+   * recorded before this instance shut down, until an instance takes them with
+   * takeUnrecordedLikes. A later save of a user's wish for a comment wins over an earlier one.
+   */
+  void saveUnrecordedLikes(Map<Long, Map<String, Boolean>> likes);
+
+  /***
+   * Returns and forgets the likes kept by saveUnrecordedLikes on any instance, or some of them if
+   * there are many; the rest are returned by later calls.
+   */
+  Map<Long, Map<String, Boolean>> takeUnrecordedLikes();
+
+  /***
+   * Returns up to `limit` comments that have no sentiment score yet.
+   */
+  List<Comment> getUnscoredComments(int limit);
+
+  /***
+   * Stores comment ID -> sentiment score and returns the IDs that were stored. Scores of comments
+   * that no longer exist are dropped.
+   */
+  Set<Long> setSentimentScores(Map<Long, Float> sentimentScores);
+
+  /***
+   * Brings the stored ranking scores of comments up to date with their likes, where they were
+   * left behind to keep writes cheap. Called periodically in the background.
+   */
+  void refreshRankings();
+
+  /***
+   * Deletes all comments, their likes and their like records. onDeleted is called with the number
+   * of comments deleted in each batch.
+   */
+  void deleteAll(LongConsumer onDeleted);
+}
@@ -0,0 +1,437 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+
+/*
+ * Stores comments as "Comment" entities and their likes in a ShardedLikeCounter. Each ranking is
+ * a query sorted on a stored property, likeCount or hotScore, so reading the first comments of a
+ * ranking is a scan of the property's built-in index. Both are refreshed together when likes are
+ * synced from the shards.
+ *
+ * Each user's like of a comment is a "Like" entity named after both. Like entities are root
+ * entities, so they never collide with other users' likes. A like is recorded in the same
+ * cross-group transaction that adds it to one of the comment's shards, so it is counted exactly
+ * when it is recorded, whatever happens to the instance afterwards.
+ */
+public class DatastoreCommentStore implements CommentStore {
+  final private static int MAX_RETRIES = 3;
+  final private static String LIKE_KIND = "Like";
+  // One entity per like that an instance could not record before it shut down.
+  final private static String UNRECORDED_LIKE_KIND = "UnrecordedLike";
+  // Datastore accepts at most 500 entities per batch put or delete.
+  final private static int MAX_BATCH_SIZE = 500;
+  // Datastore allows at most this many entity groups in one cross-group transaction.
+  final private static int MAX_XG_GROUPS = 25;
+  // One entity per one-off data migration, named after it, stored once the migration is done.
+  final private static String MIGRATION_KIND = "Migration";
+  final private static String HOT_SCORE_BACKFILL = "hotScoreBackfill";
+
+  private final DatastoreService datastore;
+  private final ShardedLikeCounter likeCounter;
+  private final BulkDeleter deleter;
+  // Whether comments stored without a hotScore have been given one.
+  private final AtomicBoolean isBackfilled = new AtomicBoolean(false);
+
+  public DatastoreCommentStore(DatastoreService datastore, AsyncDatastoreService asyncDatastore) {
+    this.datastore = datastore;
+    this.deleter = new BulkDeleter(asyncDatastore);
+    this.likeCounter = new ShardedLikeCounter(datastore, deleter);
+  }
+
+  @Override
+  public Comment create(String content, String email, long timestamp) {
+    Entity commentEntity = new Entity("Comment");
+    commentEntity.setProperty("content", content);
+    commentEntity.setProperty("timestamp", timestamp);
+    Comment.setLikeCount(commentEntity, 0);
+    commentEntity.setProperty("email", email);
+    commentEntity.setProperty("sentimentScore", null);
+    likeCounter.initShards(commentEntity);
+    datastore.put(commentEntity);
+    return new Comment(content, commentEntity.getKey().getId(), 0, email, timestamp, null);
+  }
+
+  @Override
+  public List<Comment> getTopComments(Ranking ranking, int limit) {
+    Query q = new Query("Comment").addSort(getSortProperty(ranking), SortDirection.DESCENDING);
+    PreparedQuery pq = datastore.prepare(q);
+    List<Entity> entities = pq.asList(FetchOptions.Builder.withLimit(limit));
+    // likeCount is only synced from the like counter shards periodically,
+    // so read the exact counts from the shards.
+    Map<Long, Long> likeCounts = likeCounter.getCounts(entities);
+    return entities.stream()
+        .map(entity -> Comment.fromEntity(entity, likeCounts.get(entity.getKey().getId())))
+        .sorted(ranking.getOrder())
+        .collect(Collectors.toList());
+  }
+
+  @Override
+  public String getPage(Ranking ranking, int pageSize, String cursor, CommentConsumer consumer)
+      throws IOException {
+    FetchOptions options = FetchOptions.Builder.withLimit(pageSize);
+    if (cursor != null) {
+      options.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    Query q = new Query("Comment").addSort(getSortProperty(ranking), SortDirection.DESCENDING);
+    QueryResultIterator<Entity> entities = datastore.prepare(q).asQueryResultIterator(options);
+    int count = 0;
+    while (entities.hasNext()) {
+      Entity entity = entities.next();
+      // Use the synced likeCount rather than reading the shards of every comment.
+      consumer.accept(Comment.fromEntity(entity, (long) entity.getProperty("likeCount")));
+      count++;
+    }
+    // A short page is the last one.
+    return count < pageSize ? null : entities.getCursor().toWebSafeString();
+  }
+
+  @Override
+  public Map<Long, Long> incrementLikes(Map<Long, Long> likeDeltas) {
+    Map<Long, Long> failed = likeCounter.incrementAll(likeDeltas);
+    // The increments are committed now, so nothing below may fail the call: the caller would retry
+    // them and count them twice.
+    for (long commentId : likeDeltas.keySet()) {
+      if (!failed.containsKey(commentId)) {
+        try {
+          likeCounter.syncLikeCount(commentId);
+        } catch (RuntimeException e) {
+          likeCounter.scheduleSync(commentId);
+        }
+        continue;
+      }
+      // Other instances are writing likes of the same comment; spread it over more shards.
+      try {
+        likeCounter.grow(commentId);
+      } catch (EntityNotFoundException | RuntimeException e) {
+        // The next collision tries again.
+        continue;
+      }
+    }
+    return failed;
+  }
+
+  @Override
+  public LikeChanges setLikes(Map<Long, Map<String, Boolean>> likes) {
+    LikeChanges changes = new LikeChanges();
+    List<Key> commentKeys = new ArrayList<>();
+    for (long commentId : likes.keySet()) {
+      commentKeys.add(KeyFactory.createKey("Comment", commentId));
+    }
+    // Read outside any transaction, for the number of shards of each comment; a comment deleted
+    // after this only leaves stray Like and LikeShard entities, which deleteAll removes with the
+    // rest.
+    Map<Long, Entity> commentEntities = new HashMap<>();
+    for (Entity commentEntity : datastore.get(null, commentKeys).values()) {
+      commentEntities.put(commentEntity.getKey().getId(), commentEntity);
+    }
+    Map<Key, Boolean> wanted = new LinkedHashMap<>();
+    for (Map.Entry<Long, Map<String, Boolean>> commentLikes : likes.entrySet()) {
+      if (commentEntities.containsKey(commentLikes.getKey())) {
+        for (Map.Entry<String, Boolean> like : commentLikes.getValue().entrySet()) {
+          wanted.put(getLikeKey(commentLikes.getKey(), like.getKey()), like.getValue());
+        }
+      }
+    }
+    // One batched read leaves out the likes that are recorded already, which is most of them when
+    // users click twice; the transactions below read the rest again.
+    Set<Key> liked = datastore.get(null, wanted.keySet()).keySet();
+    Map<Key, Boolean> batch = new HashMap<>();
+    Set<Long> batchCommentIds = new HashSet<>();
+    for (Map.Entry<Key, Boolean> like : wanted.entrySet()) {
+      if (liked.contains(like.getKey()) == like.getValue()) {
+        continue;
+      }
+      long commentId = getCommentId(like.getKey());
+      // Each like is an entity group, and so is the shard of each of its comments.
+      int numGroups = batch.size() + batchCommentIds.size() + 1
+          + (batchCommentIds.contains(commentId) ? 0 : 1);
+      if (numGroups > MAX_XG_GROUPS) {
+        setLikeBatch(batch, commentEntities, changes);
+        batch.clear();
+        batchCommentIds.clear();
+      }
+      batch.put(like.getKey(), like.getValue());
+      batchCommentIds.add(commentId);
+    }
+    if (!batch.isEmpty()) {
+      setLikeBatch(batch, commentEntities, changes);
+    }
+    changes.likeDeltas.values().removeIf(delta -> delta == 0);
+    // The counts are committed now, so nothing below may fail the call: the caller would retry
+    // the likes, and although they would change nothing, the listeners would not hear of them.
+    for (long commentId : changes.likeDeltas.keySet()) {
+      try {
+        likeCounter.syncLikeCount(commentId);
+      } catch (RuntimeException e) {
+        likeCounter.scheduleSync(commentId);
+      }
+    }
+    return changes;
+  }
+
+  /***
+   * Creates or deletes the Like entities of a batch of likes and adds the resulting change of each
+   * comment's likes to one of its shards, all in one cross-group transaction, so a like is counted
+   * exactly when it is recorded. The batch spans at most MAX_XG_GROUPS entity groups. Adds the
+   * changes to `changes`, or the likes to its failed ones if the transaction kept colliding with
+   * others for the same users and shards, in which case the comments get more shards.
+   */
+  private void setLikeBatch(Map<Key, Boolean> likes, Map<Long, Entity> commentEntities,
+      LikeChanges changes) {
+    Map<Long, Long> deltas = null;
+    for (int retries = 0; retries < MAX_RETRIES && deltas == null; retries++) {
+      Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        Set<Key> liked = datastore.get(txn, likes.keySet()).keySet();
+        Map<Long, Long> batchDeltas = new HashMap<>();
+        List<Entity> toPut = new ArrayList<>();
+        List<Key> toDelete = new ArrayList<>();
+        for (Map.Entry<Key, Boolean> like : likes.entrySet()) {
+          Key likeKey = like.getKey();
+          if (liked.contains(likeKey) == like.getValue()) {
+            continue;
+          }
+          if (like.getValue()) {
+            // Like entities are only read by key, so their properties need no index writes.
+            Entity likeEntity = new Entity(likeKey);
+            likeEntity.setUnindexedProperty("commentId", getCommentId(likeKey));
+            likeEntity.setUnindexedProperty("userId", getUserId(likeKey));
+            likeEntity.setUnindexedProperty("timestamp", System.currentTimeMillis());
+            toPut.add(likeEntity);
+          } else {
+            toDelete.add(likeKey);
+          }
+          batchDeltas.merge(getCommentId(likeKey), like.getValue() ? 1L : -1L, Long::sum);
+        }
+        batchDeltas.values().removeIf(delta -> delta == 0);
+        if (!toPut.isEmpty()) {
+          datastore.put(txn, toPut);
+        }
+        if (!toDelete.isEmpty()) {
+          datastore.delete(txn, toDelete);
+        }
+        if (!batchDeltas.isEmpty()) {
+          List<Entity> changed = new ArrayList<>();
+          for (long commentId : batchDeltas.keySet()) {
+            changed.add(commentEntities.get(commentId));
+          }
+          likeCounter.incrementInTransaction(txn, changed, batchDeltas);
+        }
+        txn.commit();
+        deltas = batchDeltas;
+      } catch (ConcurrentModificationException e) {
+        continue;
+      } catch (RuntimeException e) {
+        // Nothing of this batch was committed; the batches before it were.
+        break;
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+    if (deltas != null) {
+      for (Map.Entry<Long, Long> delta : deltas.entrySet()) {
+        changes.likeDeltas.merge(delta.getKey(), delta.getValue(), Long::sum);
+      }
+      return;
+    }
+    Set<Long> commentIds = new HashSet<>();
+    for (Map.Entry<Key, Boolean> like : likes.entrySet()) {
+      commentIds.add(getCommentId(like.getKey()));
+      changes.failed.computeIfAbsent(getCommentId(like.getKey()), id -> new HashMap<>())
+          .put(getUserId(like.getKey()), like.getValue());
+    }
+    // Other instances may be writing likes of the same comments; spread them over more shards.
+    for (long commentId : commentIds) {
+      try {
+        likeCounter.grow(commentId);
+      } catch (EntityNotFoundException | RuntimeException e) {
+        // The next collision tries again.
+      }
+    }
+  }
+
+  private static Key getLikeKey(long commentId, String userId) {
+    return KeyFactory.createKey(LIKE_KIND, commentId + ":" + userId);
+  }
+
+  private static long getCommentId(Key likeKey) {
+    String name = likeKey.getName();
+    return Long.parseLong(name.substring(0, name.indexOf(':')));
+  }
+
+  private static String getUserId(Key likeKey) {
+    String name = likeKey.getName();
+    return name.substring(name.indexOf(':') + 1);
+  }
+
+  @Override
+  public void saveUnrecordedLikes(Map<Long, Map<String, Boolean>> likes) {
+    // Each save has its own keys, so it never overwrites a save that is being taken.
+    String saveId = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    long now = System.currentTimeMillis();
+    List<Entity> entities = new ArrayList<>();
+    for (Map.Entry<Long, Map<String, Boolean>> commentLikes : likes.entrySet()) {
+      for (Map.Entry<String, Boolean> like : commentLikes.getValue().entrySet()) {
+        Entity entity = new Entity(UNRECORDED_LIKE_KIND,
+            saveId + ":" + commentLikes.getKey() + ":" + like.getKey());
+        entity.setUnindexedProperty("commentId", commentLikes.getKey());
+        entity.setUnindexedProperty("userId", like.getKey());
+        entity.setUnindexedProperty("isLiked", like.getValue());
+        entity.setUnindexedProperty("timestamp", now);
+        entities.add(entity);
+      }
+    }
+    for (int start = 0; start < entities.size(); start += MAX_BATCH_SIZE) {
+      datastore.put(entities.subList(start, Math.min(start + MAX_BATCH_SIZE, entities.size())));
+    }
+  }
+
+  @Override
+  public Map<Long, Map<String, Boolean>> takeUnrecordedLikes() {
+    List<Entity> entities = datastore.prepare(new Query(UNRECORDED_LIKE_KIND))
+        .asList(FetchOptions.Builder.withLimit(MAX_BATCH_SIZE));
+    if (entities.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    // Later saves win.
+    entities.sort(Comparator.comparingLong(entity -> (long) entity.getProperty("timestamp")));
+    Map<Long, Map<String, Boolean>> likes = new HashMap<>();
+    List<Key> keys = new ArrayList<>();
+    for (Entity entity : entities) {
+      likes.computeIfAbsent((long) entity.getProperty("commentId"), id -> new HashMap<>())
+          .put((String) entity.getProperty("userId"), (boolean) entity.getProperty("isLiked"));
+      keys.add(entity.getKey());
+    }
+    datastore.delete(keys);
+    return likes;
+  }
+
+  @Override
+  public List<Comment> getUnscoredComments(int limit) {
+    Query q = new Query("Comment")
+        .setFilter(new FilterPredicate("sentimentScore", FilterOperator.EQUAL, null));
+    List<Comment> comments = new ArrayList<>();
+    for (Entity entity : datastore.prepare(q).asIterable(FetchOptions.Builder.withLimit(limit))) {
+      comments.add(Comment.fromEntity(entity, (long) entity.getProperty("likeCount")));
+    }
+    return comments;
+  }
+
+  @Override
+  public Set<Long> setSentimentScores(Map<Long, Float> sentimentScores) {
+    List<Key> keys = new ArrayList<>();
+    for (long commentId : sentimentScores.keySet()) {
+      keys.add(KeyFactory.createKey("Comment", commentId));
+    }
+    if (keys.isEmpty()) {
+      return Collections.emptySet();
+    }
+    // Patch in a transaction so that a concurrent like count sync or shard resize of the same
+    // comment is not overwritten. Callers keep batches small enough for one cross-group
+    // transaction.
+    for (int retries = 0; retries < MAX_RETRIES; retries++) {
+      Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        // Comments deleted in the meantime are simply missing here.
+        Map<Key, Entity> entities = datastore.get(txn, keys);
+        for (Entity entity : entities.values()) {
+          entity.setProperty("sentimentScore", sentimentScores.get(entity.getKey().getId()));
+        }
+        datastore.put(txn, entities.values());
+        txn.commit();
+        return entities.keySet().stream().map(Key::getId).collect(Collectors.toSet());
+      } catch (ConcurrentModificationException e) {
+        continue;
+      } finally {
+        if (txn.isActive()) {
+          txn.rollback();
+        }
+      }
+    }
+    return Collections.emptySet();
+  }
+
+  @Override
+  public void refreshRankings() {
+    if (!isBackfilled.get()) {
+      backfillHotScores();
+    }
+    likeCounter.syncPending();
+  }
+
+  /***
+   * Schedules a sync of the comments stored before hot ranking, which are missing from its index
+   * until they get a hotScore. Once none are left, a marker entity is stored so that no instance
+   * scans the comments again.
+   */
+  private void backfillHotScores() {
+    Key markerKey = KeyFactory.createKey(MIGRATION_KIND, HOT_SCORE_BACKFILL);
+    if (!datastore.get(null, Collections.singleton(markerKey)).isEmpty()) {
+      isBackfilled.set(true);
+      return;
+    }
+    // A query sorted on hotScore only returns comments that have one. Both queries read keys only.
+    Set<Key> scored = new HashSet<>();
+    Query scoredQuery = new Query("Comment").addSort("hotScore").setKeysOnly();
+    for (Entity entity : datastore.prepare(scoredQuery).asIterable()) {
+      scored.add(entity.getKey());
+    }
+    boolean isMissing = false;
+    for (Entity entity : datastore.prepare(new Query("Comment").setKeysOnly()).asIterable()) {
+      if (!scored.contains(entity.getKey())) {
+        likeCounter.scheduleSync(entity.getKey().getId());
+        isMissing = true;
+      }
+    }
+    if (!isMissing) {
+      // The syncs scheduled by earlier runs are all done.
+      datastore.put(new Entity(markerKey));
+      isBackfilled.set(true);
+    }
+  }
+
+  @Override
+  public void deleteAll(LongConsumer onDeleted) {
+    deleter.deleteAll("Comment", onDeleted);
+    likeCounter.deleteAll();
+    deleter.deleteAll(LIKE_KIND, numDeleted -> {});
+    deleter.deleteAll(UNRECORDED_LIKE_KIND, numDeleted -> {});
+  }
+
+  private static String getSortProperty(Ranking ranking) {
+    return ranking == Ranking.HOT ? "hotScore" : "likeCount";
+  }
+}
@@ -0,0 +1,265 @@
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/*
+ * Keeps comments in memory, for running and load testing the servlets without Datastore. Comments
+ * are held by ID in a ConcurrentHashMap and ranked in one ConcurrentSkipListSet per ranking, so
+ * top-N reads and paging are ordered walks that never block writers. Stored comments are
+ * immutable; a write replaces the comment in all collections under the map's lock for that ID, so
+ * writes to different comments run in parallel and nothing ever fails because of contention. The
+ * users who like a comment are kept in a set per comment, guarded by the same lock.
+ *
+ * Like Datastore queries, reads are not isolated from writes: a comment whose likes change during
+ * a read may be missed by it.
+ */
+public class InMemoryCommentStore implements CommentStore {
+  final private static int DELETE_BATCH_SIZE = 500;
+  // Ties in creation order.
+  final private static Comparator<StoredComment> BY_LIKES =
+      Comparator.comparingLong((StoredComment comment) -> -comment.likeCount)
+          .thenComparingLong(comment -> comment.id);
+  final private static Comparator<StoredComment> BY_HOT =
+      Comparator.comparingDouble((StoredComment comment) -> -comment.hotScore)
+          .thenComparingLong(comment -> comment.id);
+
+  private final Map<Long, StoredComment> comments = new ConcurrentHashMap<>();
+  private final Map<Ranking, NavigableSet<StoredComment>> rankings = new EnumMap<>(Ranking.class);
+  // Comment ID -> IDs of the users who like it.
+  private final Map<Long, Set<String>> likers = new ConcurrentHashMap<>();
+  // Comment ID -> user ID -> whether the user likes it, saved by saveUnrecordedLikes.
+  private final Map<Long, Map<String, Boolean>> unrecordedLikes = new HashMap<>();
+  private final AtomicLong lastId = new AtomicLong();
+
+  private static class StoredComment {
+    final long id;
+    final String content;
+    final String email;
+    final long timestamp;
+    final long likeCount;
+    final Float sentimentScore;
+    final double hotScore;
+
+    StoredComment(long id, String content, String email, long timestamp, long likeCount,
+        Float sentimentScore) {
+      this.id = id;
+      this.content = content;
+      this.email = email;
+      this.timestamp = timestamp;
+      this.likeCount = likeCount;
+      this.sentimentScore = sentimentScore;
+      this.hotScore = Comment.getHotScore(likeCount, timestamp);
+    }
+
+    Comment toComment() {
+      return new Comment(content, id, likeCount, email, timestamp, sentimentScore);
+    }
+  }
+
+  public InMemoryCommentStore() {
+    rankings.put(Ranking.TOP, new ConcurrentSkipListSet<>(BY_LIKES));
+    rankings.put(Ranking.HOT, new ConcurrentSkipListSet<>(BY_HOT));
+  }
+
+  @Override
+  public Comment create(String content, String email, long timestamp) {
+    StoredComment comment =
+        new StoredComment(lastId.incrementAndGet(), content, email, timestamp, 0, null);
+    comments.compute(comment.id, (id, old) -> {
+      for (NavigableSet<StoredComment> ranking : rankings.values()) {
+        ranking.add(comment);
+      }
+      return comment;
+    });
+    return comment.toComment();
+  }
+
+  @Override
+  public List<Comment> getTopComments(Ranking ranking, int limit) {
+    List<Comment> topComments = new ArrayList<>();
+    Iterator<StoredComment> it = rankings.get(ranking).iterator();
+    while (topComments.size() < limit && it.hasNext()) {
+      topComments.add(it.next().toComment());
+    }
+    return topComments;
+  }
+
+  @Override
+  public String getPage(Ranking ranking, int pageSize, String cursor, CommentConsumer consumer)
+      throws IOException {
+    NavigableSet<StoredComment> remaining = rankings.get(ranking);
+    if (cursor != null) {
+      remaining = remaining.tailSet(parseCursor(ranking, cursor), false);
+    }
+    StoredComment last = null;
+    int count = 0;
+    Iterator<StoredComment> it = remaining.iterator();
+    while (count < pageSize && it.hasNext()) {
+      last = it.next();
+      consumer.accept(last.toComment());
+      count++;
+    }
+    // A short page is the last one.
+    return count < pageSize ? null : toCursor(ranking, last);
+  }
+
+  /***
+   * Returns the rank of a comment: "likeCount:id" or "timestamp:likeCount:id" for hot ranking,
+   * which is enough to find where the next page starts.
+   */
+  private static String toCursor(Ranking ranking, StoredComment comment) {
+    return ranking == Ranking.HOT
+        ? comment.timestamp + ":" + comment.likeCount + ":" + comment.id
+        : comment.likeCount + ":" + comment.id;
+  }
+
+  /***
+   * Returns a probe comment with the rank written in the cursor.
+   */
+  private static StoredComment parseCursor(Ranking ranking, String cursor) {
+    String[] parts = cursor.split(":");
+    // Long.parseLong throws NumberFormatException, an IllegalArgumentException.
+    if (ranking == Ranking.HOT && parts.length == 3) {
+      return new StoredComment(Long.parseLong(parts[2]), null, null, Long.parseLong(parts[0]),
+          Long.parseLong(parts[1]), null);
+    }
+    if (ranking == Ranking.TOP && parts.length == 2) {
+      return new StoredComment(Long.parseLong(parts[1]), null, null, 0, Long.parseLong(parts[0]),
+          null);
+    }
+    throw new IllegalArgumentException("Invalid cursor: " + cursor);
+  }
+
+  @Override
+  public Map<Long, Long> incrementLikes(Map<Long, Long> likeDeltas) {
+    for (Map.Entry<Long, Long> likeDelta : likeDeltas.entrySet()) {
+      comments.computeIfPresent(likeDelta.getKey(), (id, old) -> replace(old,
+          new StoredComment(id, old.content, old.email, old.timestamp,
+              old.likeCount + likeDelta.getValue(), old.sentimentScore)));
+    }
+    // Writes never conflict, so nothing has to be retried.
+    return new HashMap<>();
+  }
+
+  @Override
+  public LikeChanges setLikes(Map<Long, Map<String, Boolean>> likes) {
+    LikeChanges changes = new LikeChanges();
+    for (Map.Entry<Long, Map<String, Boolean>> commentLikes : likes.entrySet()) {
+      long[] delta = {0};
+      comments.computeIfPresent(commentLikes.getKey(), (id, old) -> {
+        Set<String> users = likers.computeIfAbsent(id, k -> new HashSet<>());
+        for (Map.Entry<String, Boolean> like : commentLikes.getValue().entrySet()) {
+          if (like.getValue() ? users.add(like.getKey()) : users.remove(like.getKey())) {
+            delta[0] += like.getValue() ? 1 : -1;
+          }
+        }
+        if (delta[0] == 0) {
+          return old;
+        }
+        return replace(old, new StoredComment(id, old.content, old.email, old.timestamp,
+            old.likeCount + delta[0], old.sentimentScore));
+      });
+      if (delta[0] != 0) {
+        changes.likeDeltas.put(commentLikes.getKey(), delta[0]);
+      }
+    }
+    return changes;
+  }
+
+  @Override
+  public synchronized void saveUnrecordedLikes(Map<Long, Map<String, Boolean>> likes) {
+    for (Map.Entry<Long, Map<String, Boolean>> commentLikes : likes.entrySet()) {
+      unrecordedLikes.computeIfAbsent(commentLikes.getKey(), id -> new HashMap<>())
+          .putAll(commentLikes.getValue());
+    }
+  }
+
+  @Override
+  public synchronized Map<Long, Map<String, Boolean>> takeUnrecordedLikes() {
+    Map<Long, Map<String, Boolean>> likes = new HashMap<>(unrecordedLikes);
+    unrecordedLikes.clear();
+    return likes;
+  }
+
+  @Override
+  public List<Comment> getUnscoredComments(int limit) {
+    List<Comment> unscored = new ArrayList<>();
+    for (StoredComment comment : comments.values()) {
+      if (unscored.size() >= limit) {
+        break;
+      }
+      if (comment.sentimentScore == null) {
+        unscored.add(comment.toComment());
+      }
+    }
+    return unscored;
+  }
+
+  @Override
+  public Set<Long> setSentimentScores(Map<Long, Float> sentimentScores) {
+    Set<Long> stored = new HashSet<>();
+    for (Map.Entry<Long, Float> sentimentScore : sentimentScores.entrySet()) {
+      StoredComment comment = comments.computeIfPresent(sentimentScore.getKey(), (id, old) ->
+          replace(old, new StoredComment(id, old.content, old.email, old.timestamp,
+              old.likeCount, sentimentScore.getValue())));
+      if (comment != null) {
+        stored.add(comment.id);
+      }
+    }
+    return stored;
+  }
+
+  @Override
+  public void refreshRankings() {
+    // Scores are updated with every write.
+  }
+
+  @Override
+  public void deleteAll(LongConsumer onDeleted) {
+    long numDeleted = 0;
+    for (long commentId : comments.keySet()) {
+      // Once it is out of the map no write can replace it, so it is the last version ranked.
+      StoredComment removed = comments.remove(commentId);
+      if (removed == null) {
+        continue;
+      }
+      for (NavigableSet<StoredComment> ranking : rankings.values()) {
+        ranking.remove(removed);
+      }
+      likers.remove(commentId);
+      if (++numDeleted == DELETE_BATCH_SIZE) {
+        onDeleted.accept(numDeleted);
+        numDeleted = 0;
+      }
+    }
+    if (numDeleted > 0) {
+      onDeleted.accept(numDeleted);
+    }
+  }
+
+  /***
+   * Swaps a stored comment for its new version in the rankings. Must be called while holding the
+   * map's lock for the comment's ID, i.e. from inside compute().
+   */
+  private StoredComment replace(StoredComment old, StoredComment comment) {
+    for (NavigableSet<StoredComment> ranking : rankings.values()) {
+      ranking.remove(old);
+      ranking.add(comment);
+    }
+    return comment;
+  }
+}
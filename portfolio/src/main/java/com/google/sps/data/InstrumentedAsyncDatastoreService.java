@@ -0,0 +1,243 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.DatastoreAttributes;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Index;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyRange;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.ToLongFunction;
+
+/*
+ * AsyncDatastoreService that records its gets, puts, deletes and queries the same way as
+ * InstrumentedDatastoreService, into the same metrics and request usage.
+ *
+ * A call is timed from when it is made until its result is first taken from the Future, and is
+ * counted on the thread that takes it, which is the one that waits for it. Results that are never
+ * taken are not recorded.
+ */
+public class InstrumentedAsyncDatastoreService implements AsyncDatastoreService {
+  private final AsyncDatastoreService datastore;
+  private final InstrumentedDatastoreService instrumented;
+
+  /***
+   * Records the calls of `datastore` through `instrumented`, the synchronous service of the app.
+   */
+  public InstrumentedAsyncDatastoreService(AsyncDatastoreService datastore,
+      InstrumentedDatastoreService instrumented) {
+    this.datastore = datastore;
+    this.instrumented = instrumented;
+  }
+
+  @Override
+  public Future<Entity> get(Key key) {
+    return time("get", datastore.get(key), entity -> 1);
+  }
+
+  @Override
+  public Future<Entity> get(Transaction txn, Key key) {
+    return time("get", datastore.get(txn, key), entity -> 1);
+  }
+
+  @Override
+  public Future<Map<Key, Entity>> get(Iterable<Key> keys) {
+    return time("get", datastore.get(keys), Map::size);
+  }
+
+  @Override
+  public Future<Map<Key, Entity>> get(Transaction txn, Iterable<Key> keys) {
+    return time("get", datastore.get(txn, keys), Map::size);
+  }
+
+  @Override
+  public Future<Key> put(Entity entity) {
+    return time("put", datastore.put(entity), key -> 1);
+  }
+
+  @Override
+  public Future<Key> put(Transaction txn, Entity entity) {
+    return time("put", datastore.put(txn, entity), key -> 1);
+  }
+
+  @Override
+  public Future<List<Key>> put(Iterable<Entity> entities) {
+    return time("put", datastore.put(entities), List::size);
+  }
+
+  @Override
+  public Future<List<Key>> put(Transaction txn, Iterable<Entity> entities) {
+    return time("put", datastore.put(txn, entities), List::size);
+  }
+
+  @Override
+  public Future<Void> delete(Key... keys) {
+    return time("delete", datastore.delete(keys), keys.length);
+  }
+
+  @Override
+  public Future<Void> delete(Transaction txn, Key... keys) {
+    return time("delete", datastore.delete(txn, keys), keys.length);
+  }
+
+  @Override
+  public Future<Void> delete(Iterable<Key> keys) {
+    return time("delete", datastore.delete(keys), count(keys));
+  }
+
+  @Override
+  public Future<Void> delete(Transaction txn, Iterable<Key> keys) {
+    return time("delete", datastore.delete(txn, keys), count(keys));
+  }
+
+  @Override
+  public PreparedQuery prepare(Query query) {
+    return instrumented.instrument(query, datastore.prepare(query));
+  }
+
+  @Override
+  public PreparedQuery prepare(Transaction txn, Query query) {
+    return instrumented.instrument(query, datastore.prepare(txn, query));
+  }
+
+  @Override
+  public Future<Transaction> beginTransaction() {
+    return datastore.beginTransaction();
+  }
+
+  @Override
+  public Future<Transaction> beginTransaction(TransactionOptions options) {
+    return datastore.beginTransaction(options);
+  }
+
+  @Override
+  public Transaction getCurrentTransaction() {
+    return datastore.getCurrentTransaction();
+  }
+
+  @Override
+  public Transaction getCurrentTransaction(Transaction returnedIfNoTxn) {
+    return datastore.getCurrentTransaction(returnedIfNoTxn);
+  }
+
+  @Override
+  public Collection<Transaction> getActiveTransactions() {
+    return datastore.getActiveTransactions();
+  }
+
+  @Override
+  public Future<KeyRange> allocateIds(String kind, long num) {
+    return datastore.allocateIds(kind, num);
+  }
+
+  @Override
+  public Future<KeyRange> allocateIds(Key parent, String kind, long num) {
+    return datastore.allocateIds(parent, kind, num);
+  }
+
+  @Override
+  public Future<DatastoreAttributes> getDatastoreAttributes() {
+    return datastore.getDatastoreAttributes();
+  }
+
+  @Override
+  public Future<Map<Index, Index.IndexState>> getIndexes() {
+    return datastore.getIndexes();
+  }
+
+  private <T> Future<T> time(String operation, Future<T> call, ToLongFunction<T> numEntities) {
+    return new TimedFuture<>(operation, System.nanoTime(), call, numEntities);
+  }
+
+  private Future<Void> time(String operation, Future<Void> call, long numKeys) {
+    return time(operation, call, result -> numKeys);
+  }
+
+  private static long count(Iterable<Key> keys) {
+    long numKeys = 0;
+    for (Key key : keys) {
+      numKeys++;
+    }
+    return numKeys;
+  }
+
+  /*
+   * Records its call the first time its result, or the call's failure, is taken. Failed calls are
+   * recorded with no entities.
+   */
+  private class TimedFuture<T> implements Future<T> {
+    private final String operation;
+    private final long startTime;
+    private final Future<T> call;
+    private final ToLongFunction<T> numEntities;
+    private boolean isRecorded = false;
+
+    TimedFuture(String operation, long startTime, Future<T> call,
+        ToLongFunction<T> numEntities) {
+      this.operation = operation;
+      this.startTime = startTime;
+      this.call = call;
+      this.numEntities = numEntities;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+      T result;
+      try {
+        result = call.get();
+      } catch (ExecutionException e) {
+        record(0);
+        throw e;
+      }
+      record(numEntities.applyAsLong(result));
+      return result;
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      T result;
+      try {
+        result = call.get(timeout, unit);
+      } catch (ExecutionException e) {
+        record(0);
+        throw e;
+      }
+      record(numEntities.applyAsLong(result));
+      return result;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return call.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return call.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      return call.isDone();
+    }
+
+    private synchronized void record(long numRecorded) {
+      if (!isRecorded) {
+        isRecorded = true;
+        instrumented.record(operation, startTime, numRecorded);
+      }
+    }
+  }
+}
@@ -0,0 +1,444 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreAttributes;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Index;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyRange;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultIterable;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.logging.Logger;
+
+/*
+ * DatastoreService that times every get, put, delete and query into the RequestMetrics, and counts
+ * the calls and entities of the request being handled on the current thread, so that N+1 reads
+ * show up per endpoint. Queries that take at least the slow query threshold are logged with their
+ * kind, filters and sort order.
+ *
+ * Query results are fetched lazily in batches, so a query is timed across all of its fetches and
+ * recorded once its results run out. Results that are not read to the end are not recorded.
+ * Transactions are passed through; their commits are counted by ApiCallCounter.
+ */
+public class InstrumentedDatastoreService implements DatastoreService {
+  private static final Logger logger =
+      Logger.getLogger(InstrumentedDatastoreService.class.getName());
+  // Datastore usage of the request on this thread; null outside of requests.
+  private static final ThreadLocal<Usage> currentUsage = new ThreadLocal<>();
+
+  private final DatastoreService datastore;
+  private final RequestMetrics metrics;
+  private final long slowQueryNanos;
+
+  /*
+   * Datastore calls made and entities read or written while handling one request.
+   */
+  public static class Usage {
+    private long numCalls;
+    private long numEntities;
+
+    public long getNumCalls() {
+      return numCalls;
+    }
+
+    public long getNumEntities() {
+      return numEntities;
+    }
+  }
+
+  public InstrumentedDatastoreService(DatastoreService datastore, RequestMetrics metrics,
+      long slowQueryMs) {
+    this.datastore = datastore;
+    this.metrics = metrics;
+    this.slowQueryNanos = slowQueryMs * 1000000;
+  }
+
+  /***
+   * Starts counting the Datastore usage of the request handled on this thread.
+   */
+  public static void beginRequest() {
+    currentUsage.set(new Usage());
+  }
+
+  /***
+   * Stops counting for this thread and returns the usage since beginRequest().
+   */
+  public static Usage endRequest() {
+    Usage usage = currentUsage.get();
+    currentUsage.remove();
+    return usage == null ? new Usage() : usage;
+  }
+
+  @Override
+  public Entity get(Key key) throws EntityNotFoundException {
+    long startTime = System.nanoTime();
+    boolean isFound = false;
+    try {
+      Entity entity = datastore.get(key);
+      isFound = true;
+      return entity;
+    } finally {
+      record("get", startTime, isFound ? 1 : 0);
+    }
+  }
+
+  @Override
+  public Entity get(Transaction txn, Key key) throws EntityNotFoundException {
+    long startTime = System.nanoTime();
+    boolean isFound = false;
+    try {
+      Entity entity = datastore.get(txn, key);
+      isFound = true;
+      return entity;
+    } finally {
+      record("get", startTime, isFound ? 1 : 0);
+    }
+  }
+
+  @Override
+  public Map<Key, Entity> get(Iterable<Key> keys) {
+    return time("get", () -> datastore.get(keys), Map::size);
+  }
+
+  @Override
+  public Map<Key, Entity> get(Transaction txn, Iterable<Key> keys) {
+    return time("get", () -> datastore.get(txn, keys), Map::size);
+  }
+
+  @Override
+  public Key put(Entity entity) {
+    return time("put", () -> datastore.put(entity), key -> 1);
+  }
+
+  @Override
+  public Key put(Transaction txn, Entity entity) {
+    return time("put", () -> datastore.put(txn, entity), key -> 1);
+  }
+
+  @Override
+  public List<Key> put(Iterable<Entity> entities) {
+    return time("put", () -> datastore.put(entities), List::size);
+  }
+
+  @Override
+  public List<Key> put(Transaction txn, Iterable<Entity> entities) {
+    return time("put", () -> datastore.put(txn, entities), List::size);
+  }
+
+  @Override
+  public void delete(Key... keys) {
+    time("delete", () -> {
+      datastore.delete(keys);
+      return keys.length;
+    }, numKeys -> numKeys);
+  }
+
+  @Override
+  public void delete(Transaction txn, Key... keys) {
+    time("delete", () -> {
+      datastore.delete(txn, keys);
+      return keys.length;
+    }, numKeys -> numKeys);
+  }
+
+  @Override
+  public void delete(Iterable<Key> keys) {
+    time("delete", () -> {
+      datastore.delete(keys);
+      return count(keys);
+    }, numKeys -> numKeys);
+  }
+
+  @Override
+  public void delete(Transaction txn, Iterable<Key> keys) {
+    time("delete", () -> {
+      datastore.delete(txn, keys);
+      return count(keys);
+    }, numKeys -> numKeys);
+  }
+
+  @Override
+  public PreparedQuery prepare(Query query) {
+    return instrument(query, datastore.prepare(query));
+  }
+
+  @Override
+  public PreparedQuery prepare(Transaction txn, Query query) {
+    return instrument(query, datastore.prepare(txn, query));
+  }
+
+  @Override
+  public Transaction beginTransaction() {
+    return datastore.beginTransaction();
+  }
+
+  @Override
+  public Transaction beginTransaction(TransactionOptions options) {
+    return datastore.beginTransaction(options);
+  }
+
+  @Override
+  public Transaction getCurrentTransaction() {
+    return datastore.getCurrentTransaction();
+  }
+
+  @Override
+  public Transaction getCurrentTransaction(Transaction returnedIfNoTxn) {
+    return datastore.getCurrentTransaction(returnedIfNoTxn);
+  }
+
+  @Override
+  public Collection<Transaction> getActiveTransactions() {
+    return datastore.getActiveTransactions();
+  }
+
+  @Override
+  public KeyRange allocateIds(String kind, long num) {
+    return datastore.allocateIds(kind, num);
+  }
+
+  @Override
+  public KeyRange allocateIds(Key parent, String kind, long num) {
+    return datastore.allocateIds(parent, kind, num);
+  }
+
+  @Override
+  public KeyRangeState allocateIdRange(KeyRange range) {
+    return datastore.allocateIdRange(range);
+  }
+
+  @Override
+  public DatastoreAttributes getDatastoreAttributes() {
+    return datastore.getDatastoreAttributes();
+  }
+
+  @Override
+  public Map<Index, Index.IndexState> getIndexes() {
+    return datastore.getIndexes();
+  }
+
+  /***
+   * Runs and records a call; failed calls are recorded with no entities.
+   */
+  private <T> T time(String operation, Supplier<T> call, ToLongFunction<T> numEntities) {
+    long startTime = System.nanoTime();
+    T result = null;
+    try {
+      result = call.get();
+      return result;
+    } finally {
+      record(operation, startTime, result == null ? 0 : numEntities.applyAsLong(result));
+    }
+  }
+
+  /***
+   * Wraps a query prepared by another Datastore service, e.g. an AsyncDatastoreService, so that it
+   * is recorded like the queries of this one.
+   */
+  PreparedQuery instrument(Query query, PreparedQuery preparedQuery) {
+    return new InstrumentedQuery(query, preparedQuery);
+  }
+
+  void record(String operation, long startTime, long numEntities) {
+    countCall(operation, System.nanoTime() - startTime, numEntities);
+  }
+
+  private void recordQuery(Query query, long latencyNanos, long numEntities) {
+    countCall("query", latencyNanos, numEntities);
+    if (latencyNanos >= slowQueryNanos) {
+      logger.warning(String.format("Slow query: %d ms, %d entities: %s",
+          latencyNanos / 1000000, numEntities, query));
+    }
+  }
+
+  private void countCall(String operation, long latencyNanos, long numEntities) {
+    metrics.recordDatastoreCall(operation, latencyNanos, numEntities);
+    Usage usage = currentUsage.get();
+    if (usage != null) {
+      usage.numCalls++;
+      usage.numEntities += numEntities;
+    }
+  }
+
+  private static long count(Iterable<Key> keys) {
+    long numKeys = 0;
+    for (Key key : keys) {
+      numKeys++;
+    }
+    return numKeys;
+  }
+
+  /*
+   * Times a query across all of its fetches. Every way of reading the results goes through a
+   * QueryResultIterator or a fully fetched list.
+   */
+  private class InstrumentedQuery implements PreparedQuery {
+    private final Query query;
+    private final PreparedQuery preparedQuery;
+
+    InstrumentedQuery(Query query, PreparedQuery preparedQuery) {
+      this.query = query;
+      this.preparedQuery = preparedQuery;
+    }
+
+    @Override
+    public List<Entity> asList(FetchOptions options) {
+      return asQueryResultList(options);
+    }
+
+    @Override
+    public QueryResultList<Entity> asQueryResultList(FetchOptions options) {
+      long startTime = System.nanoTime();
+      QueryResultList<Entity> entities = preparedQuery.asQueryResultList(options);
+      // Fetches all results now, so that they are part of the timing.
+      int numEntities = entities.size();
+      recordQuery(query, System.nanoTime() - startTime, numEntities);
+      return entities;
+    }
+
+    @Override
+    public Iterable<Entity> asIterable(FetchOptions options) {
+      return asQueryResultIterable(options);
+    }
+
+    @Override
+    public Iterable<Entity> asIterable() {
+      return asQueryResultIterable();
+    }
+
+    @Override
+    public QueryResultIterable<Entity> asQueryResultIterable(FetchOptions options) {
+      return () -> asQueryResultIterator(options);
+    }
+
+    @Override
+    public QueryResultIterable<Entity> asQueryResultIterable() {
+      return () -> asQueryResultIterator();
+    }
+
+    @Override
+    public Iterator<Entity> asIterator(FetchOptions options) {
+      return asQueryResultIterator(options);
+    }
+
+    @Override
+    public Iterator<Entity> asIterator() {
+      return asQueryResultIterator();
+    }
+
+    @Override
+    public QueryResultIterator<Entity> asQueryResultIterator(FetchOptions options) {
+      long startTime = System.nanoTime();
+      QueryResultIterator<Entity> entities = preparedQuery.asQueryResultIterator(options);
+      return new InstrumentedIterator(query, entities, System.nanoTime() - startTime);
+    }
+
+    @Override
+    public QueryResultIterator<Entity> asQueryResultIterator() {
+      long startTime = System.nanoTime();
+      QueryResultIterator<Entity> entities = preparedQuery.asQueryResultIterator();
+      return new InstrumentedIterator(query, entities, System.nanoTime() - startTime);
+    }
+
+    @Override
+    public Entity asSingleEntity() throws TooManyResultsException {
+      long startTime = System.nanoTime();
+      Entity entity = null;
+      try {
+        entity = preparedQuery.asSingleEntity();
+        return entity;
+      } finally {
+        recordQuery(query, System.nanoTime() - startTime, entity == null ? 0 : 1);
+      }
+    }
+
+    @Override
+    public int countEntities(FetchOptions options) {
+      long startTime = System.nanoTime();
+      try {
+        return preparedQuery.countEntities(options);
+      } finally {
+        recordQuery(query, System.nanoTime() - startTime, 0);
+      }
+    }
+
+    @Override
+    @Deprecated
+    public int countEntities() {
+      long startTime = System.nanoTime();
+      try {
+        return preparedQuery.countEntities();
+      } finally {
+        recordQuery(query, System.nanoTime() - startTime, 0);
+      }
+    }
+  }
+
+  /*
+   * Adds up the time spent fetching results and records the query when they run out.
+   */
+  private class InstrumentedIterator implements QueryResultIterator<Entity> {
+    private final Query query;
+    private final QueryResultIterator<Entity> entities;
+    private long latencyNanos;
+    private long numEntities = 0;
+    private boolean isRecorded = false;
+
+    InstrumentedIterator(Query query, QueryResultIterator<Entity> entities, long latencyNanos) {
+      this.query = query;
+      this.entities = entities;
+      this.latencyNanos = latencyNanos;
+    }
+
+    @Override
+    public boolean hasNext() {
+      long startTime = System.nanoTime();
+      boolean hasNext = entities.hasNext();
+      latencyNanos += System.nanoTime() - startTime;
+      if (!hasNext && !isRecorded) {
+        isRecorded = true;
+        recordQuery(query, latencyNanos, numEntities);
+      }
+      return hasNext;
+    }
+
+    @Override
+    public Entity next() {
+      long startTime = System.nanoTime();
+      Entity entity = entities.next();
+      latencyNanos += System.nanoTime() - startTime;
+      numEntities++;
+      return entity;
+    }
+
+    @Override
+    public void remove() {
+      entities.remove();
+    }
+
+    @Override
+    public List<Index> getIndexList() {
+      return entities.getIndexList();
+    }
+
+    @Override
+    public Cursor getCursor() {
+      return entities.getCursor();
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Shared Gson instance for all servlets. Gson is thread-safe, so there is no need to build one per
+ * request, and the data classes sent on every page view get hand-written type adapters so that
+ * they are serialized without reflection. The JSON is the same as Gson's default output.
+ *
+ * Lists of comments can also be written column by column, for clients that ask for it.
+ */
+public final class Json {
+  public static final String COLUMNS_CONTENT_TYPE = "application/vnd.sps.comment-columns+json";
+
+  public static final Gson GSON = new GsonBuilder()
+      .registerTypeAdapter(Comment.class, new CommentAdapter())
+      .registerTypeAdapter(UserLoginData.class, new UserLoginDataAdapter())
+      .create();
+
+  private Json() {
+    // Disallow instances.
+  }
+
+  /***
+   * Returns the comments as UTF-8 JSON of the form {"id":[...],"content":[...],"likeCount":[...],
+   * "emails":[...],"email":[...],"timestamp":[...],"sentimentScore":[...]}, the k-th element of
+   * each array belonging to the k-th comment. Field names are written once rather than once per
+   * comment, and each distinct email is written once in "emails", which "email" indexes into.
+   * Missing values are null. Strings are escaped the way GSON escapes them.
+   */
+  public static byte[] toColumnsJson(List<Comment> comments) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (JsonWriter out =
+        new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+      out.setHtmlSafe(true);
+      out.beginObject();
+      out.name("id").beginArray();
+      for (Comment comment : comments) {
+        out.value(comment.id);
+      }
+      out.endArray();
+      out.name("content").beginArray();
+      for (Comment comment : comments) {
+        out.value(comment.content);
+      }
+      out.endArray();
+      out.name("likeCount").beginArray();
+      for (Comment comment : comments) {
+        out.value(comment.likeCount);
+      }
+      out.endArray();
+      Map<String, Integer> emailIndexes = new LinkedHashMap<>();
+      for (Comment comment : comments) {
+        if (comment.email != null) {
+          emailIndexes.putIfAbsent(comment.email, emailIndexes.size());
+        }
+      }
+      out.name("emails").beginArray();
+      for (String email : emailIndexes.keySet()) {
+        out.value(email);
+      }
+      out.endArray();
+      out.name("email").beginArray();
+      for (Comment comment : comments) {
+        out.value(comment.email == null ? null : emailIndexes.get(comment.email));
+      }
+      out.endArray();
+      out.name("timestamp").beginArray();
+      for (Comment comment : comments) {
+        out.value(comment.timestamp);
+      }
+      out.endArray();
+      out.name("sentimentScore").beginArray();
+      for (Comment comment : comments) {
+        out.value(comment.sentimentScore);
+      }
+      out.endArray();
+      out.endObject();
+    } catch (IOException e) {
+      // A ByteArrayOutputStream does not throw.
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static class CommentAdapter extends TypeAdapter<Comment> {
+    @Override
+    public void write(JsonWriter out, Comment comment) throws IOException {
+      if (comment == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginObject();
+      if (comment.content != null) {
+        out.name("content").value(comment.content);
+      }
+      out.name("id").value(comment.id);
+      out.name("likeCount").value(comment.likeCount);
+      if (comment.email != null) {
+        out.name("email").value(comment.email);
+      }
+      out.name("timestamp").value(comment.timestamp);
+      if (comment.sentimentScore != null) {
+        out.name("sentimentScore").value(comment.sentimentScore);
+      }
+      out.endObject();
+    }
+
+    @Override
+    public Comment read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      Comment comment = new Comment(null, 0, 0, null, 0, null);
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+        switch (name) {
+          case "content":
+            comment.content = in.nextString();
+            break;
+          case "id":
+            comment.id = in.nextLong();
+            break;
+          case "likeCount":
+            comment.likeCount = in.nextLong();
+            break;
+          case "email":
+            comment.email = in.nextString();
+            break;
+          case "timestamp":
+            comment.timestamp = in.nextLong();
+            break;
+          case "sentimentScore":
+            comment.sentimentScore = (float) in.nextDouble();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return comment;
+    }
+  }
+
+  private static class UserLoginDataAdapter extends TypeAdapter<UserLoginData> {
+    @Override
+    public void write(JsonWriter out, UserLoginData userLoginData) throws IOException {
+      if (userLoginData == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginObject();
+      out.name("isLoggedIn").value(userLoginData.isLoggedIn);
+      if (userLoginData.url != null) {
+        out.name("url").value(userLoginData.url);
+      }
+      out.endObject();
+    }
+
+    @Override
+    public UserLoginData read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      UserLoginData userLoginData = new UserLoginData(false, null);
+      in.beginObject();
+      while (in.hasNext()) {
+        String name = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+        switch (name) {
+          case "isLoggedIn":
+            userLoginData.isLoggedIn = in.nextBoolean();
+            break;
+          case "url":
+            userLoginData.url = in.nextString();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return userLoginData;
+    }
+  }
+}
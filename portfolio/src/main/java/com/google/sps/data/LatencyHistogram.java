@@ -0,0 +1,78 @@
+package com.google.sps.data;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Lock-free histogram of latencies in microseconds, bucketed like HdrHistogram: every power of two
+ * from 2^MIN_EXPONENT to 2^MAX_EXPONENT us is split into SUB_BUCKETS equal buckets, so a bucket is
+ * at most 1 / SUB_BUCKETS of its lower bound wide whatever the magnitude. Smaller values go to the
+ * first bucket and larger ones to the last. Each bucket is a LongAdder, so threads recording at
+ * the same time do not contend.
+ *
+ * Reads are not atomic: a snapshot taken while values are recorded may miss some of them.
+ */
+public class LatencyHistogram {
+  final private static int SUB_BUCKET_BITS = 2;
+  final private static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // 256us to about 16.8s.
+  final private static int MIN_EXPONENT = 8;
+  final private static int MAX_EXPONENT = 24;
+  public static final int NUM_BUCKETS = 1 + (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS + 1;
+
+  private final LongAdder[] counts = new LongAdder[NUM_BUCKETS];
+  private final LongAdder sumMicros = new LongAdder();
+
+  public LatencyHistogram() {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts[i] = new LongAdder();
+    }
+  }
+
+  public void record(long micros) {
+    counts[getBucket(Math.max(micros, 0))].increment();
+    sumMicros.add(micros);
+  }
+
+  /***
+   * Returns the number of values recorded in each bucket.
+   */
+  public long[] getCounts() {
+    long[] snapshot = new long[NUM_BUCKETS];
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      snapshot[i] = counts[i].sum();
+    }
+    return snapshot;
+  }
+
+  public long getSumMicros() {
+    return sumMicros.sum();
+  }
+
+  /***
+   * Returns the exclusive upper bound of a bucket in microseconds, or Long.MAX_VALUE for the last.
+   */
+  public static long getUpperBound(int bucket) {
+    if (bucket == 0) {
+      return 1L << MIN_EXPONENT;
+    }
+    if (bucket == NUM_BUCKETS - 1) {
+      return Long.MAX_VALUE;
+    }
+    int exponent = MIN_EXPONENT + (bucket - 1) / SUB_BUCKETS;
+    int subBucket = (bucket - 1) % SUB_BUCKETS;
+    return (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+  }
+
+  private static int getBucket(long micros) {
+    if (micros < 1L << MIN_EXPONENT) {
+      return 0;
+    }
+    if (micros >= 1L << MAX_EXPONENT) {
+      return NUM_BUCKETS - 1;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    // The SUB_BUCKET_BITS bits after the leading one.
+    int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+    return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+  }
+}
@@ -0,0 +1,175 @@
+package com.google.sps.data;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/*
+ * Write-behind buffer for likes and unlikes. Only the latest wish of each user for each comment is
+ * kept, so double clicks and retried requests collapse into one. Every wish is passed on to the
+ * store, which leaves alone the likes it has recorded already: other instances record likes too,
+ * so nothing this instance has seen can tell that a wish changes nothing.
+ *
+ * A background thread flushes the buffer periodically, so like requests never wait for the store:
+ * it records the likes, and the store adds them to the like counts in the same write. Like
+ * requests keep adding meanwhile: each pending entry is drained by removing it from its map, so
+ * anything added after that starts a new entry for the next flush, and the maps only hold comments
+ * with something pending.
+ */
+public class LikeBuffer {
+  final private static long MIN_DRAIN_BACKOFF_MS = 50;
+  final private static long MAX_DRAIN_BACKOFF_MS = 1000;
+  private static final Logger logger = Logger.getLogger(LikeBuffer.class.getName());
+
+  private final CommentStore commentStore;
+  private final CommentListener listener;
+  // Comment ID -> user ID -> whether the user likes it, not yet recorded in the store. The inner
+  // maps are only touched inside compute() or after being removed.
+  private final Map<Long, Map<String, Boolean>> pendingLikes = new ConcurrentHashMap<>();
+  private final AtomicBoolean isFlushing = new AtomicBoolean(false);
+
+  public LikeBuffer(CommentStore commentStore, CommentListener listener) {
+    this.commentStore = commentStore;
+    this.listener = listener;
+  }
+
+  /***
+   * Records that the user likes, or no longer likes, the comment, to be written by the next flush.
+   * Replaces any wish of the user for the comment that is still pending.
+   */
+  public void setLiked(long commentId, String userId, boolean isLiked) {
+    pendingLikes.compute(commentId, (id, users) -> {
+      if (users == null) {
+        users = new HashMap<>();
+      }
+      users.put(userId, isLiked);
+      return users;
+    });
+  }
+
+  /***
+   * Writes all pending likes to the store. Returns immediately if another thread is already
+   * flushing. Likes that could not be written stay in the buffer for the next flush.
+   */
+  public void flush() {
+    tryFlush();
+  }
+
+  /***
+   * Puts the likes that other instances could not record before they shut down into this buffer,
+   * behind any newer wish of the same users. Called periodically.
+   */
+  public void restoreUnrecorded() {
+    Map<Long, Map<String, Boolean>> likes;
+    try {
+      likes = commentStore.takeUnrecordedLikes();
+    } catch (RuntimeException e) {
+      // The next call tries again; nothing was taken.
+      return;
+    }
+    requeueLikes(likes);
+  }
+
+  /***
+   * Flushes until nothing is pending, waiting for a flush in progress on another thread and
+   * retrying failed writes with backoff, for up to timeoutMs. Called when the instance shuts down.
+   * Likes still pending after that are saved in the store for another instance to restore, and
+   * only logged if even that fails.
+   */
+  public void drain(long timeoutMs) {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    long backoffMs = MIN_DRAIN_BACKOFF_MS;
+    while (true) {
+      if (tryFlush() && !hasPending()) {
+        return;
+      }
+      long remainingMs = deadline - System.currentTimeMillis();
+      if (remainingMs <= 0) {
+        break;
+      }
+      try {
+        Thread.sleep(Math.min(backoffMs, remainingMs));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+      backoffMs = Math.min(backoffMs * 2, MAX_DRAIN_BACKOFF_MS);
+    }
+    if (!hasPending()) {
+      return;
+    }
+    Map<Long, Map<String, Boolean>> likes = new HashMap<>();
+    for (long commentId : pendingLikes.keySet()) {
+      likes.put(commentId, pendingLikes.remove(commentId));
+    }
+    try {
+      commentStore.saveUnrecordedLikes(likes);
+    } catch (RuntimeException e) {
+      logger.severe(String.format("Dropping unwritten likes: %s", likes));
+    }
+  }
+
+  /***
+   * Flushes, unless another thread is already flushing. Returns whether this thread flushed.
+   */
+  private boolean tryFlush() {
+    if (!isFlushing.compareAndSet(false, true)) {
+      return false;
+    }
+    try {
+      recordLikes();
+      return true;
+    } finally {
+      isFlushing.set(false);
+    }
+  }
+
+  private boolean hasPending() {
+    return !pendingLikes.isEmpty();
+  }
+
+  private void recordLikes() {
+    Map<Long, Map<String, Boolean>> likes = new HashMap<>();
+    for (long commentId : pendingLikes.keySet()) {
+      Map<String, Boolean> users = pendingLikes.remove(commentId);
+      if (users != null) {
+        likes.put(commentId, users);
+      }
+    }
+    if (likes.isEmpty()) {
+      return;
+    }
+    long writeStartTime = System.currentTimeMillis();
+    CommentStore.LikeChanges changes;
+    try {
+      changes = commentStore.setLikes(likes);
+    } catch (RuntimeException e) {
+      // The store is unavailable; keep everything for the next flush.
+      requeueLikes(likes);
+      return;
+    }
+    requeueLikes(changes.failed);
+    if (!changes.likeDeltas.isEmpty()) {
+      listener.onLikesAdded(changes.likeDeltas, writeStartTime);
+    }
+  }
+
+  /***
+   * Puts likes back in the buffer, unless the user has changed their mind since.
+   */
+  private void requeueLikes(Map<Long, Map<String, Boolean>> likes) {
+    for (Map.Entry<Long, Map<String, Boolean>> commentLikes : likes.entrySet()) {
+      pendingLikes.compute(commentLikes.getKey(), (id, users) -> {
+        if (users == null) {
+          users = new HashMap<>();
+        }
+        for (Map.Entry<String, Boolean> like : commentLikes.getValue().entrySet()) {
+          users.putIfAbsent(like.getKey(), like.getValue());
+        }
+        return users;
+      });
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package com.google.sps.data;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/*
+ * Scores sentiment by counting positive and negative words, without calling any remote service.
+ * Meant for running locally and for load tests, not for real use.
+ */
+public class LocalSentimentScorer implements SentimentScorer {
+  private static final Set<String> POSITIVE_WORDS = new HashSet<>(Arrays.asList("good", "great",
+      "nice", "love", "like", "awesome", "amazing", "cool", "happy", "thanks", "wonderful"));
+  private static final Set<String> NEGATIVE_WORDS = new HashSet<>(Arrays.asList("bad", "awful",
+      "hate", "boring", "terrible", "sad", "ugly", "worst", "poor", "annoying", "wrong"));
+
+  @Override
+  public float score(String text) {
+    int positive = 0;
+    int negative = 0;
+    for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}']+")) {
+      if (POSITIVE_WORDS.contains(word)) {
+        positive++;
+      } else if (NEGATIVE_WORDS.contains(word)) {
+        negative++;
+      }
+    }
+    if (positive + negative == 0) {
+      return 0;
+    }
+    return (float) (positive - negative) / (positive + negative);
+  }
+}
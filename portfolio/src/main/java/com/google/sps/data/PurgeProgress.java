@@ -0,0 +1,14 @@
+package com.google.sps.data;
+
+public class PurgeProgress {
+  public long deletedComments;
+  public boolean isRunning;
+  // Set if the last purge failed.
+  public String error;
+
+  public PurgeProgress(long deletedComments, boolean isRunning, String error) {
+    this.deletedComments = deletedComments;
+    this.isRunning = isRunning;
+    this.error = error;
+  }
+}
@@ -0,0 +1,23 @@
+package com.google.sps.data;
+
+import java.util.Comparator;
+
+/*
+ * Orders in which comments can be listed.
+ */
+public enum Ranking {
+  // Most liked first.
+  TOP(Comment.BY_LIKES_DESCENDING),
+  // Most liked for their age first; see Comment.getHotScore.
+  HOT(Comment.BY_HOT_DESCENDING);
+
+  private final Comparator<Comment> order;
+
+  Ranking(Comparator<Comment> order) {
+    this.order = order;
+  }
+
+  public Comparator<Comment> getOrder() {
+    return order;
+  }
+}
@@ -0,0 +1,71 @@
+package com.google.sps.data;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/*
+ * Token bucket per client key: each key may make `burst` requests at once, and gets its tokens back
+ * at `permitsPerMinute`. A bucket is a single AtomicLong holding the time at which it will be full
+ * again, so taking a token is one compare-and-set and needs no lock; buckets of different keys live
+ * in different bins of a ConcurrentHashMap and do not contend. Full buckets hold no information and
+ * are dropped by evictIdle(), which keeps memory proportional to the number of recent clients.
+ *
+ * A limiter with a non-positive rate lets every request through.
+ */
+public class RateLimiter {
+  private final long intervalNanos;
+  private final long capacityNanos;
+  // Returns the current time in nanoseconds, like System.nanoTime().
+  private final LongSupplier clock;
+  // Client key -> clock time at which its bucket is full again.
+  private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+  public RateLimiter(long permitsPerMinute, int burst) {
+    this(permitsPerMinute, burst, System::nanoTime);
+  }
+
+  public RateLimiter(long permitsPerMinute, int burst, LongSupplier clock) {
+    if (permitsPerMinute > 0 && burst < 1) {
+      throw new IllegalArgumentException("Burst must be a positive integer.");
+    }
+    this.intervalNanos = permitsPerMinute > 0 ? TimeUnit.MINUTES.toNanos(1) / permitsPerMinute : 0;
+    this.capacityNanos = intervalNanos * burst;
+    this.clock = clock;
+  }
+
+  /***
+   * Takes a token from the key's bucket. Returns 0 if there was one, or else the number of
+   * milliseconds until there is, in which case nothing is taken.
+   */
+  public long tryAcquire(String key) {
+    if (intervalNanos == 0) {
+      return 0;
+    }
+    long now = clock.getAsLong();
+    AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+    while (true) {
+      long fullTime = bucket.get();
+      // A bucket that was full before now is just full.
+      long newFullTime = (fullTime - now > 0 ? fullTime : now) + intervalNanos;
+      long waitNanos = newFullTime - now - capacityNanos;
+      if (waitNanos > 0) {
+        return Math.max(TimeUnit.NANOSECONDS.toMillis(waitNanos), 1);
+      }
+      if (bucket.compareAndSet(fullTime, newFullTime)) {
+        return 0;
+      }
+    }
+  }
+
+  /***
+   * Drops the buckets that are full. A request racing with this may take its token from a dropped
+   * bucket, which at worst lets that client through once more than its limit.
+   */
+  public void evictIdle() {
+    long now = clock.getAsLong();
+    buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+  }
+}
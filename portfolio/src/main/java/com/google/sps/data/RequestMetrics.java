@@ -0,0 +1,212 @@
+package com.google.sps.data;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * Request latencies, response status codes, requests in flight and Datastore usage per endpoint
+ * and HTTP method, Datastore call latencies per operation, the number of App Engine API calls
+ * (Datastore and others) per API method, and the hits and misses of registered caches. Written out
+ * in the Prometheus text format.
+ */
+public class RequestMetrics {
+  // Other methods are counted together, so that clients cannot add labels at will.
+  final private static Set<String> METHODS = new HashSet<>(
+      Arrays.asList("GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH"));
+
+  // "endpoint method" -> metrics.
+  private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+  // "service.method" -> number of API calls.
+  private final ConcurrentMap<String, LongAdder> apiCalls = new ConcurrentHashMap<>();
+  // Datastore operation -> metrics.
+  private final ConcurrentMap<String, DatastoreMetrics> datastoreCalls =
+      new ConcurrentHashMap<>();
+  // Cache name -> its counters.
+  private final ConcurrentMap<String, CacheCounters> caches = new ConcurrentHashMap<>();
+
+  /*
+   * The metrics of one endpoint and HTTP method.
+   */
+  public static class EndpointMetrics {
+    private final String endpoint;
+    private final String method;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder inFlight = new LongAdder();
+    private final ConcurrentMap<Integer, LongAdder> responses = new ConcurrentHashMap<>();
+    private final LongAdder datastoreCalls = new LongAdder();
+    private final LongAdder datastoreEntities = new LongAdder();
+
+    private EndpointMetrics(String endpoint, String method) {
+      this.endpoint = endpoint;
+      this.method = method;
+    }
+
+    public void begin() {
+      inFlight.increment();
+    }
+
+    public void end(int status, long latencyNanos, InstrumentedDatastoreService.Usage usage) {
+      inFlight.decrement();
+      latency.record(latencyNanos / 1000);
+      responses.computeIfAbsent(status, key -> new LongAdder()).increment();
+      datastoreCalls.add(usage.getNumCalls());
+      datastoreEntities.add(usage.getNumEntities());
+    }
+  }
+
+  private static class DatastoreMetrics {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder entities = new LongAdder();
+  }
+
+  private static class CacheCounters {
+    private final LongSupplier hits;
+    private final LongSupplier misses;
+
+    private CacheCounters(LongSupplier hits, LongSupplier misses) {
+      this.hits = hits;
+      this.misses = misses;
+    }
+  }
+
+  public EndpointMetrics forEndpoint(String endpoint, String method) {
+    String label = METHODS.contains(method) ? method : "other";
+    return endpoints.computeIfAbsent(endpoint + " " + label,
+        key -> new EndpointMetrics(endpoint, label));
+  }
+
+  public void countApiCall(String service, String method) {
+    apiCalls.computeIfAbsent(service + "." + method, key -> new LongAdder()).increment();
+  }
+
+  /***
+   * Records a Datastore get, put, delete or query and the number of entities it read or wrote.
+   */
+  public void recordDatastoreCall(String operation, long latencyNanos, long numEntities) {
+    DatastoreMetrics metrics =
+        datastoreCalls.computeIfAbsent(operation, key -> new DatastoreMetrics());
+    metrics.latency.record(latencyNanos / 1000);
+    metrics.entities.add(numEntities);
+  }
+
+  /***
+   * Exports the hit and miss counts of a cache, read whenever the metrics are written.
+   */
+  public void registerCache(String name, LongSupplier hits, LongSupplier misses) {
+    caches.put(name, new CacheCounters(hits, misses));
+  }
+
+  /***
+   * Writes all metrics in the Prometheus text exposition format.
+   */
+  public void write(PrintWriter out) {
+    Map<String, EndpointMetrics> sortedEndpoints = new TreeMap<>(endpoints);
+
+    out.println("# HELP sps_http_request_duration_seconds Time taken to handle a request.");
+    out.println("# TYPE sps_http_request_duration_seconds histogram");
+    for (EndpointMetrics metrics : sortedEndpoints.values()) {
+      writeHistogram(out, "sps_http_request_duration_seconds", labels(metrics), metrics.latency);
+    }
+
+    out.println("# HELP sps_http_responses_total Responses sent, by status code.");
+    out.println("# TYPE sps_http_responses_total counter");
+    for (EndpointMetrics metrics : sortedEndpoints.values()) {
+      for (Map.Entry<Integer, LongAdder> response : new TreeMap<>(metrics.responses).entrySet()) {
+        out.printf("sps_http_responses_total{%s,status=\"%d\"} %d%n", labels(metrics),
+            response.getKey(), response.getValue().sum());
+      }
+    }
+
+    out.println("# HELP sps_http_requests_in_flight Requests being handled right now.");
+    out.println("# TYPE sps_http_requests_in_flight gauge");
+    for (EndpointMetrics metrics : sortedEndpoints.values()) {
+      out.printf("sps_http_requests_in_flight{%s} %d%n", labels(metrics),
+          metrics.inFlight.sum());
+    }
+
+    out.println("# HELP sps_http_datastore_calls_total Datastore calls made by requests.");
+    out.println("# TYPE sps_http_datastore_calls_total counter");
+    for (EndpointMetrics metrics : sortedEndpoints.values()) {
+      out.printf("sps_http_datastore_calls_total{%s} %d%n", labels(metrics),
+          metrics.datastoreCalls.sum());
+    }
+
+    out.println("# HELP sps_http_datastore_entities_total Entities read or written by requests.");
+    out.println("# TYPE sps_http_datastore_entities_total counter");
+    for (EndpointMetrics metrics : sortedEndpoints.values()) {
+      out.printf("sps_http_datastore_entities_total{%s} %d%n", labels(metrics),
+          metrics.datastoreEntities.sum());
+    }
+
+    Map<String, DatastoreMetrics> sortedDatastoreCalls = new TreeMap<>(datastoreCalls);
+    out.println("# HELP sps_datastore_call_duration_seconds Time taken by a Datastore call.");
+    out.println("# TYPE sps_datastore_call_duration_seconds histogram");
+    for (Map.Entry<String, DatastoreMetrics> call : sortedDatastoreCalls.entrySet()) {
+      writeHistogram(out, "sps_datastore_call_duration_seconds",
+          String.format("operation=\"%s\"", escape(call.getKey())), call.getValue().latency);
+    }
+
+    out.println("# HELP sps_datastore_entities_total Entities read or written by Datastore calls.");
+    out.println("# TYPE sps_datastore_entities_total counter");
+    for (Map.Entry<String, DatastoreMetrics> call : sortedDatastoreCalls.entrySet()) {
+      out.printf("sps_datastore_entities_total{operation=\"%s\"} %d%n", escape(call.getKey()),
+          call.getValue().entities.sum());
+    }
+
+    out.println("# HELP sps_api_calls_total App Engine API calls, e.g. Datastore gets and puts.");
+    out.println("# TYPE sps_api_calls_total counter");
+    for (Map.Entry<String, LongAdder> apiCall : new TreeMap<>(apiCalls).entrySet()) {
+      String[] parts = apiCall.getKey().split("\\.", 2);
+      out.printf("sps_api_calls_total{service=\"%s\",method=\"%s\"} %d%n", escape(parts[0]),
+          escape(parts[1]), apiCall.getValue().sum());
+    }
+
+    Map<String, CacheCounters> sortedCaches = new TreeMap<>(caches);
+    out.println("# HELP sps_cache_hits_total Cache lookups answered from the cache.");
+    out.println("# TYPE sps_cache_hits_total counter");
+    for (Map.Entry<String, CacheCounters> cache : sortedCaches.entrySet()) {
+      out.printf("sps_cache_hits_total{cache=\"%s\"} %d%n", escape(cache.getKey()),
+          cache.getValue().hits.getAsLong());
+    }
+
+    out.println("# HELP sps_cache_misses_total Cache lookups that had to compute the value.");
+    out.println("# TYPE sps_cache_misses_total counter");
+    for (Map.Entry<String, CacheCounters> cache : sortedCaches.entrySet()) {
+      out.printf("sps_cache_misses_total{cache=\"%s\"} %d%n", escape(cache.getKey()),
+          cache.getValue().misses.getAsLong());
+    }
+    out.flush();
+  }
+
+  private static void writeHistogram(PrintWriter out, String name, String labels,
+      LatencyHistogram histogram) {
+    long[] counts = histogram.getCounts();
+    long cumulativeCount = 0;
+    for (int i = 0; i < counts.length - 1; i++) {
+      cumulativeCount += counts[i];
+      out.printf("%s_bucket{%s,le=\"%s\"} %d%n", name, labels,
+          LatencyHistogram.getUpperBound(i) / 1e6, cumulativeCount);
+    }
+    cumulativeCount += counts[counts.length - 1];
+    out.printf("%s_bucket{%s,le=\"+Inf\"} %d%n", name, labels, cumulativeCount);
+    out.printf("%s_sum{%s} %s%n", name, labels, histogram.getSumMicros() / 1e6);
+    out.printf("%s_count{%s} %d%n", name, labels, cumulativeCount);
+  }
+
+  private static String labels(EndpointMetrics metrics) {
+    return String.format("endpoint=\"%s\",method=\"%s\"", escape(metrics.endpoint),
+        escape(metrics.method));
+  }
+
+  private static String escape(String labelValue) {
+    return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
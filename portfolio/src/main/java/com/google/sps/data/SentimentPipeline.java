@@ -0,0 +1,213 @@
+package com.google.sps.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Scores the sentiment of new comments in the background. Comments are stored without a
+ * sentimentScore and queued here; a worker thread takes up to BATCH_SIZE queued comments at a
+ * time, scores them, and stores their scores in one batch.
+ *
+ * The queue is bounded. When it is full, the comment is only left unscored in the store, and the
+ * worker reads the unscored comments back once it has caught up, so a burst of comments never
+ * slows down posting. Comments whose scoring or storing fails are retried by the worker with
+ * exponential backoff, up to MAX_ATTEMPTS times; after that they are left for the next instance.
+ * A comment is only ever pending once, however it was found, so it is never scored twice.
+ */
+public class SentimentPipeline {
+  final private static int QUEUE_CAPACITY = 1000;
+  // Cross-group transactions can touch at most 25 entity groups.
+  final private static int BATCH_SIZE = 20;
+  final private static long STOP_TIMEOUT_MS = 5000;
+  final private static long POLL_TIMEOUT_MS = 1000;
+  final private static int MAX_ATTEMPTS = 8;
+  final private static long MIN_RETRY_DELAY_MS = 1000;
+  final private static long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+
+  private final CommentStore commentStore;
+  private final SentimentScorer scorer;
+  private final CommentListener listener;
+  private final BlockingQueue<PendingComment> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  // Comments to score again once their retry time has come. Only touched by the worker.
+  private final PriorityQueue<PendingComment> retries =
+      new PriorityQueue<>(Comparator.comparingLong((PendingComment comment) -> comment.retryTime));
+  // IDs of the comments queued, being scored, or waiting for a retry.
+  private final Set<Long> pendingIds = ConcurrentHashMap.newKeySet();
+  private final Thread worker = new Thread(this::run, "sentiment-worker");
+  private volatile boolean isRunning = true;
+  // Whether comments were left out of the full queue, to be read back from the store.
+  private volatile boolean isBacklogged = false;
+
+  private static class PendingComment {
+    final long id;
+    final String content;
+    // The number of times scoring it failed, and when to try again.
+    final int attempts;
+    final long retryTime;
+
+    PendingComment(long id, String content, int attempts, long retryTime) {
+      this.id = id;
+      this.content = content;
+      this.attempts = attempts;
+      this.retryTime = retryTime;
+    }
+  }
+
+  public SentimentPipeline(CommentStore commentStore, SentimentScorer scorer,
+      CommentListener listener) {
+    this.commentStore = commentStore;
+    this.scorer = scorer;
+    this.listener = listener;
+    worker.setDaemon(true);
+  }
+
+  /***
+   * Starts the worker, which first queues the comments left unscored by a previous instance.
+   */
+  public void start() {
+    isBacklogged = true;
+    worker.start();
+  }
+
+  /***
+   * Stops the worker after it has scored the comments already queued, or after STOP_TIMEOUT_MS.
+   * Comments still unscored, including those waiting to be retried, are picked up by the next
+   * instance.
+   */
+  public void stop() {
+    isRunning = false;
+    try {
+      worker.join(STOP_TIMEOUT_MS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    scorer.close();
+  }
+
+  /***
+   * Queues a stored comment for scoring. Never blocks and never scores on the caller's thread.
+   */
+  public void submit(long commentId, String content) {
+    if (!pendingIds.add(commentId)) {
+      // Read back from the store already.
+      return;
+    }
+    if (!queue.offer(new PendingComment(commentId, content, 0, 0))) {
+      pendingIds.remove(commentId);
+      isBacklogged = true;
+    }
+  }
+
+  private void run() {
+    List<PendingComment> batch = new ArrayList<>();
+    while (isRunning || !queue.isEmpty()) {
+      try {
+        if (isRunning && isBacklogged && queue.isEmpty()) {
+          reloadUnscored();
+        }
+        PendingComment first = queue.poll(getPollTimeoutMs(), TimeUnit.MILLISECONDS);
+        if (first != null) {
+          batch.add(first);
+        }
+        long now = System.currentTimeMillis();
+        while (batch.size() < BATCH_SIZE && !retries.isEmpty() && retries.peek().retryTime <= now) {
+          batch.add(retries.poll());
+        }
+        if (batch.isEmpty()) {
+          continue;
+        }
+        queue.drainTo(batch, BATCH_SIZE - batch.size());
+        process(batch);
+      } catch (InterruptedException e) {
+        return;
+      } catch (RuntimeException e) {
+        // Keep the worker alive; reading the backlog is tried again on the next round, and can
+        // find the comments of this batch again.
+        for (PendingComment comment : batch) {
+          pendingIds.remove(comment.id);
+        }
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  /***
+   * Queues the comments that are stored without a score and not pending already, as many as fit.
+   */
+  private void reloadUnscored() {
+    isBacklogged = false;
+    for (Comment comment : commentStore.getUnscoredComments(QUEUE_CAPACITY)) {
+      if (!pendingIds.add(comment.id)) {
+        continue;
+      }
+      if (!queue.offer(new PendingComment(comment.id, comment.content, 0, 0))) {
+        pendingIds.remove(comment.id);
+        isBacklogged = true;
+        return;
+      }
+    }
+  }
+
+  /***
+   * Returns how long to wait for a new comment before the next retry is due.
+   */
+  private long getPollTimeoutMs() {
+    if (retries.isEmpty()) {
+      return POLL_TIMEOUT_MS;
+    }
+    long untilRetryMs = retries.peek().retryTime - System.currentTimeMillis();
+    return Math.max(0, Math.min(untilRetryMs, POLL_TIMEOUT_MS));
+  }
+
+  private void process(List<PendingComment> batch) {
+    Map<Long, Float> scores = new HashMap<>();
+    List<PendingComment> scored = new ArrayList<>();
+    for (PendingComment comment : batch) {
+      try {
+        scores.put(comment.id, scorer.score(comment.content));
+        scored.add(comment);
+      } catch (IOException | RuntimeException e) {
+        retryLater(comment);
+      }
+    }
+    if (scores.isEmpty()) {
+      return;
+    }
+
+    Set<Long> stored;
+    try {
+      stored = commentStore.setSentimentScores(scores);
+    } catch (RuntimeException e) {
+      // Scoring them again is a cache hit.
+      scored.forEach(this::retryLater);
+      return;
+    }
+    pendingIds.removeAll(scores.keySet());
+    // Comments deleted in the meantime are left out.
+    scores.keySet().retainAll(stored);
+    listener.onSentimentScored(scores);
+  }
+
+  private void retryLater(PendingComment comment) {
+    int attempts = comment.attempts + 1;
+    if (attempts >= MAX_ATTEMPTS) {
+      // Left unscored in the store, for the next instance to read back.
+      pendingIds.remove(comment.id);
+      return;
+    }
+    long delayMs = Math.min(MIN_RETRY_DELAY_MS << (attempts - 1), MAX_RETRY_DELAY_MS);
+    retries.add(new PendingComment(comment.id, comment.content, attempts,
+        System.currentTimeMillis() + delayMs));
+  }
+}
@@ -0,0 +1,14 @@
+package com.google.sps.data;
+
+import java.io.IOException;
+
+/*
+ * Scores the sentiment of a piece of text with a float number between -1 and 1. The greater the
+ * score is, the more positive the text is.
+ */
+public interface SentimentScorer extends AutoCloseable {
+  float score(String text) throws IOException;
+
+  @Override
+  default void close() {}
+}
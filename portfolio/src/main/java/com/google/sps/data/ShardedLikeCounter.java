@@ -0,0 +1,366 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Like counter spread over several "LikeShard" entities per comment. A like only touches one
+ * randomly picked shard, so concurrent likes on the same comment rarely collide, and the total is
+ * the sum of all shards. Shards are root entities (not children of the comment) so that they do
+ * not share the comment's entity group.
+ *
+ * The number of shards of a comment is stored in its "likeShards" property and can grow when the
+ * comment gets hot. The comment's "likeCount" and "hotScore" properties are kept as denormalized
+ * copies of the total, refreshed at most once per SYNC_INTERVAL_MS, so that comments can still be
+ * sorted by them in a Datastore query. Syncs skipped because of that limit are done by
+ * syncPending().
+ *
+ * Comments stored before sharding have no likeShards, and their likes are only in likeCount. Until
+ * such a comment is seeded, its total is that likeCount plus its shards. Seeding moves the
+ * likeCount into shard 0 in the same transaction that sets likeShards, the first time the
+ * comment's likeCount or likeShards is about to be overwritten.
+ */
+public class ShardedLikeCounter {
+  public static final String SHARD_KIND = "LikeShard";
+  public static final int DEFAULT_NUM_SHARDS = 4;
+  public static final int MAX_NUM_SHARDS = 64;
+  final private static long SYNC_INTERVAL_MS = 1000;
+  // Cross-group transactions can touch at most 25 entity groups.
+  final private static int MAX_SHARDS_PER_TXN = 25;
+
+  private final DatastoreService datastore;
+  private final BulkDeleter deleter;
+  private final int initialNumShards;
+  // Comment ID -> last time its likeCount was synced by this instance.
+  private final Map<Long, Long> lastSyncTime = new ConcurrentHashMap<>();
+  // IDs of comments whose likeCount is not up to date.
+  private final Set<Long> unsyncedIds = ConcurrentHashMap.newKeySet();
+
+  public ShardedLikeCounter(DatastoreService datastore, BulkDeleter deleter) {
+    this(datastore, deleter, Integer.getInteger("sps.likes.shards", DEFAULT_NUM_SHARDS));
+  }
+
+  public ShardedLikeCounter(DatastoreService datastore, BulkDeleter deleter,
+      int initialNumShards) {
+    if (initialNumShards < 1 || initialNumShards > MAX_NUM_SHARDS) {
+      throw new IllegalArgumentException(
+          String.format("Number of shards must be between 1 and %d.", MAX_NUM_SHARDS));
+    }
+    this.datastore = datastore;
+    this.deleter = deleter;
+    this.initialNumShards = initialNumShards;
+  }
+
+  /***
+   * Sets the initial number of shards on a comment entity that is about to be stored.
+   */
+  public void initShards(Entity commentEntity) {
+    commentEntity.setProperty("likeShards", initialNumShards);
+  }
+
+  /***
+   * Adds delta to one random shard of the comment. Throws EntityNotFoundException if the comment
+   * does not exist, and ConcurrentModificationException if the shard transaction collided.
+   */
+  public void increment(long commentId, long delta)
+      throws EntityNotFoundException, ConcurrentModificationException {
+    Entity commentEntity = datastore.get(KeyFactory.createKey("Comment", commentId));
+    int shardIndex = ThreadLocalRandom.current().nextInt(getNumShards(commentEntity));
+    Key shardKey = createShardKey(commentId, shardIndex);
+
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity shard;
+      try {
+        shard = datastore.get(txn, shardKey);
+      } catch (EntityNotFoundException e) {
+        shard = new Entity(shardKey);
+        shard.setProperty("commentId", commentId);
+        shard.setProperty("count", 0L);
+      }
+      shard.setProperty("count", (long) shard.getProperty("count") + delta);
+      datastore.put(txn, shard);
+      txn.commit();
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /***
+   * Adds each delta to one random shard of its comment, using one cross-group transaction per
+   * MAX_SHARDS_PER_TXN comments. Deltas of comments that no longer exist are dropped. Returns the
+   * deltas that could not be written because their transaction collided or failed; the deltas of
+   * the other transactions are committed, so a failure never makes them count twice.
+   */
+  public Map<Long, Long> incrementAll(Map<Long, Long> deltas) {
+    List<Key> commentKeys = new ArrayList<>();
+    for (long commentId : deltas.keySet()) {
+      commentKeys.add(KeyFactory.createKey("Comment", commentId));
+    }
+    Map<Key, Entity> commentEntities = datastore.get(commentKeys);
+
+    Map<Long, Long> failed = new HashMap<>();
+    List<Entity> batch = new ArrayList<>();
+    for (Entity commentEntity : commentEntities.values()) {
+      batch.add(commentEntity);
+      if (batch.size() == MAX_SHARDS_PER_TXN) {
+        incrementBatch(batch, deltas, failed);
+        batch.clear();
+      }
+    }
+    if (!batch.isEmpty()) {
+      incrementBatch(batch, deltas, failed);
+    }
+    return failed;
+  }
+
+  private void incrementBatch(List<Entity> commentEntities, Map<Long, Long> deltas,
+      Map<Long, Long> failed) {
+    Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      incrementInTransaction(txn, commentEntities, deltas);
+      txn.commit();
+    } catch (RuntimeException e) {
+      // Collisions, and any other failure of this batch alone.
+      for (Entity commentEntity : commentEntities) {
+        long commentId = commentEntity.getKey().getId();
+        failed.put(commentId, deltas.get(commentId));
+      }
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /***
+   * Adds the delta of each given comment entity to one random shard of it, as part of `txn`, a
+   * cross-group transaction with room for one more entity group per comment. The caller commits.
+   */
+  public void incrementInTransaction(Transaction txn, Collection<Entity> commentEntities,
+      Map<Long, Long> deltas) {
+    Map<Key, Long> shardDeltas = new HashMap<>();
+    for (Entity commentEntity : commentEntities) {
+      long commentId = commentEntity.getKey().getId();
+      int shardIndex = ThreadLocalRandom.current().nextInt(getNumShards(commentEntity));
+      shardDeltas.put(createShardKey(commentId, shardIndex), deltas.get(commentId));
+    }
+    Map<Key, Entity> shards = datastore.get(txn, shardDeltas.keySet());
+    List<Entity> updated = new ArrayList<>();
+    for (Map.Entry<Key, Long> entry : shardDeltas.entrySet()) {
+      Entity shard = shards.get(entry.getKey());
+      if (shard == null) {
+        shard = new Entity(entry.getKey());
+        shard.setProperty("commentId", getCommentId(entry.getKey()));
+        shard.setProperty("count", 0L);
+      }
+      shard.setProperty("count", (long) shard.getProperty("count") + entry.getValue());
+      updated.add(shard);
+    }
+    datastore.put(txn, updated);
+  }
+
+  /***
+   * Doubles the number of shards of a hot comment, up to MAX_NUM_SHARDS. Existing shards keep
+   * their counts, so no like is lost. A comment stored before sharding is only seeded, and grows
+   * on a later call.
+   */
+  public void grow(long commentId) throws EntityNotFoundException {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity commentEntity = datastore.get(txn, KeyFactory.createKey("Comment", commentId));
+      if (!isSeeded(commentEntity)) {
+        txn.rollback();
+        seed(commentId);
+        return;
+      }
+      int numShards = getNumShards(commentEntity);
+      if (numShards >= MAX_NUM_SHARDS) {
+        return;
+      }
+      commentEntity.setProperty("likeShards", Math.min(numShards * 2, MAX_NUM_SHARDS));
+      datastore.put(txn, commentEntity);
+      txn.commit();
+    } catch (ConcurrentModificationException e) {
+      // Someone else resized or synced the comment at the same time; try again on next collision.
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /***
+   * Returns the total like count of each given comment entity, keyed by comment ID. All shards of
+   * all comments are fetched in a single batch get. Comments not seeded yet add their likeCount.
+   */
+  public Map<Long, Long> getCounts(Iterable<Entity> commentEntities) {
+    Map<Key, Long> shardToComment = new HashMap<>();
+    Map<Long, Long> counts = new HashMap<>();
+    for (Entity commentEntity : commentEntities) {
+      long commentId = commentEntity.getKey().getId();
+      counts.put(commentId, isSeeded(commentEntity) ? 0L : getStoredLikeCount(commentEntity));
+      int numShards = getNumShards(commentEntity);
+      for (int i = 0; i < numShards; i++) {
+        shardToComment.put(createShardKey(commentId, i), commentId);
+      }
+    }
+    // Read outside of any current transaction, which could only cover the comment's own group.
+    for (Entity shard : datastore.get(null, shardToComment.keySet()).values()) {
+      long commentId = shardToComment.get(shard.getKey());
+      counts.put(commentId, counts.get(commentId) + (long) shard.getProperty("count"));
+    }
+    return counts;
+  }
+
+  /***
+   * Copies the total count into the comment's likeCount property, unless this instance already
+   * did so within the last SYNC_INTERVAL_MS, in which case it is left to syncPending().
+   */
+  public void syncLikeCount(long commentId) {
+    long now = System.currentTimeMillis();
+    Long lastSync = lastSyncTime.get(commentId);
+    if (lastSync != null && now - lastSync < SYNC_INTERVAL_MS) {
+      unsyncedIds.add(commentId);
+      return;
+    }
+    sync(commentId, now);
+  }
+
+  /***
+   * Marks the comment's likeCount to be synced by the next syncPending().
+   */
+  public void scheduleSync(long commentId) {
+    unsyncedIds.add(commentId);
+  }
+
+  /***
+   * Syncs the likeCount of every comment whose sync was skipped or scheduled.
+   */
+  public void syncPending() {
+    // Comments that fail are added back, for the next call.
+    for (long commentId : new ArrayList<>(unsyncedIds)) {
+      unsyncedIds.remove(commentId);
+      sync(commentId, System.currentTimeMillis());
+    }
+  }
+
+  private void sync(long commentId, long now) {
+    lastSyncTime.put(commentId, now);
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity commentEntity = datastore.get(txn, KeyFactory.createKey("Comment", commentId));
+      if (!isSeeded(commentEntity)) {
+        // Overwriting likeCount would lose the likes that are only there.
+        txn.rollback();
+        seed(commentId);
+        lastSyncTime.remove(commentId);
+        unsyncedIds.add(commentId);
+        return;
+      }
+      List<Entity> comments = new ArrayList<>();
+      comments.add(commentEntity);
+      Comment.setLikeCount(commentEntity, getCounts(comments).get(commentId));
+      datastore.put(txn, commentEntity);
+      txn.commit();
+    } catch (EntityNotFoundException e) {
+      lastSyncTime.remove(commentId);
+    } catch (ConcurrentModificationException e) {
+      // Someone else wrote the comment meanwhile; try again later.
+      lastSyncTime.remove(commentId);
+      unsyncedIds.add(commentId);
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /***
+   * Adds the likeCount of a comment stored before sharding to its shard 0 and gives it likeShards,
+   * in one cross-group transaction, so that its likes are counted once whichever way it is read.
+   * Does nothing if the comment is seeded already, or if the transaction collides, in which case
+   * it is left for a later call.
+   */
+  private void seed(long commentId) throws EntityNotFoundException {
+    Transaction txn = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      Entity commentEntity = datastore.get(txn, KeyFactory.createKey("Comment", commentId));
+      if (isSeeded(commentEntity)) {
+        return;
+      }
+      Key shardKey = createShardKey(commentId, 0);
+      Entity shard;
+      try {
+        shard = datastore.get(txn, shardKey);
+      } catch (EntityNotFoundException e) {
+        shard = new Entity(shardKey);
+        shard.setProperty("commentId", commentId);
+        shard.setProperty("count", 0L);
+      }
+      shard.setProperty("count",
+          (long) shard.getProperty("count") + getStoredLikeCount(commentEntity));
+      // The shards that unseeded comments were given so far.
+      commentEntity.setProperty("likeShards", DEFAULT_NUM_SHARDS);
+      datastore.put(txn, Arrays.asList(commentEntity, shard));
+      txn.commit();
+    } catch (ConcurrentModificationException e) {
+      // A like or sync of the same comment got in between; the next one seeds it.
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /***
+   * Deletes all shards of all comments.
+   */
+  public void deleteAll() {
+    deleter.deleteAll(SHARD_KIND, numDeleted -> {});
+    lastSyncTime.clear();
+    unsyncedIds.clear();
+  }
+
+  private int getNumShards(Entity commentEntity) {
+    Object numShards = commentEntity.getProperty("likeShards");
+    // Comments created before sharding have no likeShards property.
+    return numShards == null ? DEFAULT_NUM_SHARDS : ((Number) numShards).intValue();
+  }
+
+  private static boolean isSeeded(Entity commentEntity) {
+    return commentEntity.hasProperty("likeShards");
+  }
+
+  private static long getStoredLikeCount(Entity commentEntity) {
+    Object likeCount = commentEntity.getProperty("likeCount");
+    return likeCount == null ? 0 : ((Number) likeCount).longValue();
+  }
+
+  private static Key createShardKey(long commentId, int shardIndex) {
+    return KeyFactory.createKey(SHARD_KIND, commentId + "-" + shardIndex);
+  }
+
+  private static long getCommentId(Key shardKey) {
+    String name = shardKey.getName();
+    return Long.parseLong(name.substring(0, name.indexOf('-')));
+  }
+}
@@ -0,0 +1,192 @@
+package com.google.sps.servlets;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.sps.data.ApiCallCounter;
+import com.google.sps.data.CachingSentimentScorer;
+import com.google.sps.data.CommentEvents;
+import com.google.sps.data.CloudSentimentScorer;
+import com.google.sps.data.CommentFeed;
+import com.google.sps.data.CommentPurge;
+import com.google.sps.data.CommentStore;
+import com.google.sps.data.DatastoreCommentStore;
+import com.google.sps.data.InMemoryCommentStore;
+import com.google.sps.data.InstrumentedAsyncDatastoreService;
+import com.google.sps.data.InstrumentedDatastoreService;
+import com.google.sps.data.LikeBuffer;
+import com.google.sps.data.LocalSentimentScorer;
+import com.google.sps.data.Ranking;
+import com.google.sps.data.RateLimiter;
+import com.google.sps.data.RequestMetrics;
+import com.google.sps.data.SentimentPipeline;
+import com.google.sps.data.SentimentScorer;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/*
+ * Creates the services shared by all servlets: the comment store, the like buffer, a cached
+ * comment feed per ranking, the event dispatcher that keeps the feeds up to date, the background
+ * sentiment scoring pipeline, the comment purge job, the request metrics, and the per-client rate
+ * limits of posting comments and liking. Flushes the like buffer periodically in the background,
+ * so that like requests never wait for the store, and keeps retrying to write whatever is left
+ * when the instance shuts down, saving what still is for another instance to restore. Also
+ * refreshes the stored rankings of the comment store in the background.
+ */
+@WebListener
+public class AppContextListener implements ServletContextListener {
+  public static final String COMMENT_STORE_ATTRIBUTE = "commentStore";
+  public static final String LIKE_BUFFER_ATTRIBUTE = "likeBuffer";
+  public static final String COMMENT_EVENTS_ATTRIBUTE = "commentEvents";
+  // Ranking -> CommentFeed.
+  public static final String COMMENT_FEEDS_ATTRIBUTE = "commentFeeds";
+  public static final String SENTIMENT_PIPELINE_ATTRIBUTE = "sentimentPipeline";
+  public static final String COMMENT_PURGE_ATTRIBUTE = "commentPurge";
+  public static final String REQUEST_METRICS_ATTRIBUTE = "requestMetrics";
+  public static final String COMMENT_RATE_LIMITER_ATTRIBUTE = "commentRateLimiter";
+  public static final String LIKE_RATE_LIMITER_ATTRIBUTE = "likeRateLimiter";
+  final private long FLUSH_PERIOD_MS = 1000;
+  // How often to look for likes that instances could not record before they shut down.
+  final private long RESTORE_LIKES_PERIOD_MS = 60 * 1000;
+  final private long REFRESH_RANKINGS_PERIOD_MS = 60 * 1000;
+  final private long EVICT_RATE_LIMITS_PERIOD_MS = 60 * 1000;
+  // How long shutdown keeps retrying to write the likes left in the buffer.
+  final private long DRAIN_LIKES_TIMEOUT_MS = 10 * 1000;
+  final private static int SENTIMENT_CACHE_CAPACITY = 10000;
+  final private static long SENTIMENT_CACHE_TTL_MS = 24 * 60 * 60 * 1000;
+  final private static long DEFAULT_SLOW_QUERY_MS = 100;
+  final private static long DEFAULT_COMMENTS_PER_MINUTE = 6;
+  final private static int DEFAULT_COMMENTS_BURST = 3;
+  final private static long DEFAULT_LIKES_PER_MINUTE = 60;
+  final private static int DEFAULT_LIKES_BURST = 20;
+
+  private LikeBuffer likeBuffer;
+  private ScheduledExecutorService scheduler;
+  private SentimentPipeline sentimentPipeline;
+  private CommentPurge commentPurge;
+  private ApiCallCounter apiCallCounter;
+
+  @Override
+  public void contextInitialized(ServletContextEvent event) {
+    RequestMetrics requestMetrics = new RequestMetrics();
+    apiCallCounter = ApiCallCounter.install(requestMetrics);
+    CommentStore commentStore = createCommentStore(requestMetrics);
+    CommentEvents commentEvents = new CommentEvents();
+    Map<Ranking, CommentFeed> commentFeeds = new EnumMap<>(Ranking.class);
+    for (Ranking ranking : Ranking.values()) {
+      CommentFeed commentFeed = new CommentFeed(commentStore, ranking);
+      commentEvents.addListener(commentFeed);
+      commentFeeds.put(ranking, commentFeed);
+    }
+    likeBuffer = new LikeBuffer(commentStore, commentEvents);
+    // Duplicate comment texts are scored once.
+    CachingSentimentScorer sentimentScorer = new CachingSentimentScorer(
+        createSentimentScorer(), SENTIMENT_CACHE_CAPACITY, SENTIMENT_CACHE_TTL_MS);
+    requestMetrics.registerCache("sentiment", sentimentScorer::getHitCount,
+        sentimentScorer::getMissCount);
+    sentimentPipeline = new SentimentPipeline(commentStore, sentimentScorer, commentEvents);
+    commentPurge = new CommentPurge(commentStore, commentEvents);
+    RateLimiter commentRateLimiter =
+        createRateLimiter("comments", DEFAULT_COMMENTS_PER_MINUTE, DEFAULT_COMMENTS_BURST);
+    RateLimiter likeRateLimiter =
+        createRateLimiter("likes", DEFAULT_LIKES_PER_MINUTE, DEFAULT_LIKES_BURST);
+
+    ServletContext context = event.getServletContext();
+    context.setAttribute(COMMENT_STORE_ATTRIBUTE, commentStore);
+    context.setAttribute(LIKE_BUFFER_ATTRIBUTE, likeBuffer);
+    context.setAttribute(COMMENT_EVENTS_ATTRIBUTE, commentEvents);
+    context.setAttribute(COMMENT_FEEDS_ATTRIBUTE, commentFeeds);
+    context.setAttribute(SENTIMENT_PIPELINE_ATTRIBUTE, sentimentPipeline);
+    context.setAttribute(COMMENT_PURGE_ATTRIBUTE, commentPurge);
+    context.setAttribute(REQUEST_METRICS_ATTRIBUTE, requestMetrics);
+    context.setAttribute(COMMENT_RATE_LIMITER_ATTRIBUTE, commentRateLimiter);
+    context.setAttribute(LIKE_RATE_LIMITER_ATTRIBUTE, likeRateLimiter);
+
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "comment-scheduler");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(likeBuffer::flush, FLUSH_PERIOD_MS, FLUSH_PERIOD_MS,
+        TimeUnit.MILLISECONDS);
+    scheduler.scheduleWithFixedDelay(likeBuffer::restoreUnrecorded, 0, RESTORE_LIKES_PERIOD_MS,
+        TimeUnit.MILLISECONDS);
+    scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        commentStore.refreshRankings();
+      } catch (RuntimeException e) {
+        // An exception would cancel the task; the next run catches up instead.
+      }
+    }, 0, REFRESH_RANKINGS_PERIOD_MS, TimeUnit.MILLISECONDS);
+    scheduler.scheduleWithFixedDelay(() -> {
+      commentRateLimiter.evictIdle();
+      likeRateLimiter.evictIdle();
+    }, EVICT_RATE_LIMITS_PERIOD_MS, EVICT_RATE_LIMITS_PERIOD_MS, TimeUnit.MILLISECONDS);
+    sentimentPipeline.start();
+  }
+
+  @Override
+  public void contextDestroyed(ServletContextEvent event) {
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(FLUSH_PERIOD_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    likeBuffer.drain(DRAIN_LIKES_TIMEOUT_MS);
+    sentimentPipeline.stop();
+    commentPurge.shutdown();
+    if (apiCallCounter != null) {
+      apiCallCounter.uninstall();
+    }
+  }
+
+  /***
+   * Returns the store selected by the sps.comments.store system property: "datastore", or "memory"
+   * to keep comments in memory, e.g. for load tests without any remote service. Datastore calls are
+   * recorded into the metrics, and queries slower than sps.datastore.slowQueryMs are logged.
+   */
+  private static CommentStore createCommentStore(RequestMetrics requestMetrics) {
+    if ("memory".equals(System.getProperty("sps.comments.store"))) {
+      return new InMemoryCommentStore();
+    }
+    InstrumentedDatastoreService datastore = new InstrumentedDatastoreService(
+        DatastoreServiceFactory.getDatastoreService(), requestMetrics,
+        Long.getLong("sps.datastore.slowQueryMs", DEFAULT_SLOW_QUERY_MS));
+    return new DatastoreCommentStore(datastore, new InstrumentedAsyncDatastoreService(
+        DatastoreServiceFactory.getAsyncDatastoreService(), datastore));
+  }
+
+  /***
+   * Returns the scorer selected by the sps.sentiment.scorer system property: "cloud" for the
+   * Natural Language API, or "local" to run without any remote service.
+   */
+  private static SentimentScorer createSentimentScorer() {
+    if ("local".equals(System.getProperty("sps.sentiment.scorer"))) {
+      return new LocalSentimentScorer();
+    }
+    try {
+      return new CloudSentimentScorer();
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not create the Natural Language client.", e);
+    }
+  }
+
+  /***
+   * Returns the rate limiter of an endpoint, configured by the sps.rateLimit.<endpoint>.perMinute
+   * and sps.rateLimit.<endpoint>.burst system properties. A perMinute of 0 turns the limit off.
+   */
+  private static RateLimiter createRateLimiter(String endpoint, long defaultPerMinute,
+      int defaultBurst) {
+    return new RateLimiter(
+        Long.getLong("sps.rateLimit." + endpoint + ".perMinute", defaultPerMinute),
+        Integer.getInteger("sps.rateLimit." + endpoint + ".burst", defaultBurst));
+  }
+}
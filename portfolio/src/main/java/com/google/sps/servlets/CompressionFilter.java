@@ -0,0 +1,393 @@
+package com.google.sps.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/*
+ * Gzips text and JSON responses for clients that accept it. The first sps.compression.minBytes
+ * bytes of a body are held back: a body that ends before that is sent as is, with its exact
+ * Content-Length, since compressing it would save less than it costs. Past that, the held bytes
+ * and everything after them are compressed as they are written, so a large response is never
+ * buffered whole. Deflaters are reused from a pool, since each one allocates a few hundred
+ * kilobytes of native memory.
+ *
+ * Responses that are flushed before reaching the threshold, event streams and other asynchronous
+ * responses are sent uncompressed, so that nothing is held back from a client waiting for it.
+ */
+@WebFilter(urlPatterns = "/*", asyncSupported = true)
+public class CompressionFilter implements Filter {
+  final private static int DEFAULT_MIN_BYTES = 1024;
+  final private static int MAX_POOLED_DEFLATERS = 32;
+  // Magic number, deflate, no flags, no modification time, no extra flags, unknown OS.
+  final private static byte[] GZIP_HEADER =
+      {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+  private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(MAX_POOLED_DEFLATERS);
+  private int minBytes;
+
+  @Override
+  public void init(FilterConfig config) {
+    minBytes = Integer.getInteger("sps.compression.minBytes", DEFAULT_MIN_BYTES);
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    HttpServletResponse httpResponse = (HttpServletResponse) response;
+    httpResponse.addHeader("Vary", "Accept-Encoding");
+    if (!acceptsGzip(httpRequest.getHeader("Accept-Encoding"))) {
+      chain.doFilter(request, response);
+      return;
+    }
+    CompressingResponse compressingResponse = new CompressingResponse(httpRequest, httpResponse);
+    boolean isFailed = true;
+    try {
+      chain.doFilter(request, compressingResponse);
+      isFailed = false;
+    } finally {
+      if (isFailed) {
+        // The container sends the error; just get the deflater back.
+        compressingResponse.abandon();
+      } else if (!request.isAsyncStarted()) {
+        compressingResponse.finish();
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {
+    Deflater deflater;
+    while ((deflater = deflaters.poll()) != null) {
+      deflater.end();
+    }
+  }
+
+  /***
+   * Returns whether an Accept-Encoding header value allows gzip.
+   */
+  private static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] params = coding.split(";");
+      String name = params[0].trim();
+      if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+        continue;
+      }
+      for (int i = 1; i < params.length; i++) {
+        // A quality of 0 means not acceptable.
+        if (params[i].trim().matches("q=0(\\.0{0,3})?")) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private Deflater takeDeflater() {
+    Deflater deflater = deflaters.poll();
+    // gzip wraps raw deflate data in its own header and trailer.
+    return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  }
+
+  private void returnDeflater(Deflater deflater) {
+    deflater.reset();
+    if (!deflaters.offer(deflater)) {
+      deflater.end();
+    }
+  }
+
+  /*
+   * Writes the gzip header, the deflated bytes, and on finish() the CRC-32 and length trailer.
+   * Flushing pushes out everything written so far (a deflate sync flush).
+   */
+  private static class GzipStream extends DeflaterOutputStream {
+    private final CRC32 crc = new CRC32();
+
+    GzipStream(OutputStream out, Deflater deflater) throws IOException {
+      super(out, deflater, 8192, true);
+      out.write(GZIP_HEADER);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      super.write(bytes, offset, length);
+      crc.update(bytes, offset, length);
+    }
+
+    @Override
+    public void finish() throws IOException {
+      super.finish();
+      writeIntLE(crc.getValue());
+      writeIntLE(def.getBytesRead());
+    }
+
+    private void writeIntLE(long value) throws IOException {
+      out.write((int) value);
+      out.write((int) (value >>> 8));
+      out.write((int) (value >>> 16));
+      out.write((int) (value >>> 24));
+    }
+  }
+
+  private class CompressingResponse extends HttpServletResponseWrapper {
+    private final HttpServletRequest request;
+    private CompressingStream stream;
+    private PrintWriter writer;
+    // As set by the servlet; only passed on if the body is not compressed.
+    private long contentLength = -1;
+
+    CompressingResponse(HttpServletRequest request, HttpServletResponse response) {
+      super(response);
+      this.request = request;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+      if (writer != null) {
+        throw new IllegalStateException("getWriter() has already been called.");
+      }
+      if (stream == null) {
+        stream = new CompressingStream(this);
+      }
+      return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      if (writer == null) {
+        if (stream != null) {
+          throw new IllegalStateException("getOutputStream() has already been called.");
+        }
+        stream = new CompressingStream(this);
+        writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+      }
+      return writer;
+    }
+
+    @Override
+    public void setContentLength(int length) {
+      contentLength = length;
+    }
+
+    @Override
+    public void setContentLengthLong(long length) {
+      contentLength = length;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+      if (writer != null) {
+        writer.flush();
+      } else if (stream != null) {
+        stream.flush();
+      }
+      super.flushBuffer();
+    }
+
+    @Override
+    public void resetBuffer() {
+      super.resetBuffer();
+      if (stream != null) {
+        stream.clearHeldBytes();
+      }
+    }
+
+    @Override
+    public void reset() {
+      super.reset();
+      contentLength = -1;
+      if (stream != null) {
+        stream.clearHeldBytes();
+      }
+    }
+
+    @Override
+    public void sendError(int status) throws IOException {
+      abandon();
+      super.sendError(status);
+    }
+
+    @Override
+    public void sendError(int status, String message) throws IOException {
+      // The container writes the error page itself; whatever was held back is dropped.
+      abandon();
+      super.sendError(status, message);
+    }
+
+    void finish() throws IOException {
+      if (writer != null) {
+        // Closing the writer flushes it first, which must not count as the servlet's flush.
+        stream.isFinishing = true;
+        writer.close();
+      } else if (stream != null) {
+        stream.close();
+      } else if (contentLength >= 0) {
+        super.setContentLengthLong(contentLength);
+      }
+    }
+
+    void abandon() {
+      if (stream != null) {
+        stream.abandon();
+      }
+    }
+
+    /***
+     * Returns whether the body, whose first minBytes bytes have been written, should be gzipped.
+     */
+    boolean isCompressible() {
+      String contentType = getContentType();
+      if (contentType == null || request.isAsyncStarted() || containsHeader("Content-Encoding")
+          || getStatus() == SC_NO_CONTENT || getStatus() == SC_NOT_MODIFIED) {
+        return false;
+      }
+      contentType = contentType.toLowerCase();
+      if (contentType.startsWith("text/event-stream")) {
+        return false;
+      }
+      return contentType.startsWith("text/") || contentType.contains("json")
+          || contentType.contains("javascript") || contentType.contains("xml");
+    }
+
+    void setUncompressedLength(long length) {
+      super.setContentLengthLong(length);
+    }
+
+    void setGzipped() {
+      setHeader("Content-Encoding", "gzip");
+    }
+  }
+
+  /*
+   * Holds back the first minBytes bytes, then picks plain or gzipped output for the rest.
+   */
+  private class CompressingStream extends ServletOutputStream {
+    private final CompressingResponse response;
+    // Null once the output has been picked.
+    private ByteArrayOutputStream heldBytes = new ByteArrayOutputStream();
+    private OutputStream out;
+    private Deflater deflater;
+    private boolean isFinishing;
+    private boolean isClosed;
+
+    CompressingStream(CompressingResponse response) {
+      this.response = response;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      if (out == null) {
+        if (heldBytes.size() + length < minBytes && !response.request.isAsyncStarted()) {
+          heldBytes.write(bytes, offset, length);
+          return;
+        }
+        start(response.isCompressible());
+      }
+      out.write(bytes, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (out == null && isFinishing) {
+        return;
+      }
+      if (out == null) {
+        // Whoever flushes wants the bytes sent now, so there is no waiting for the threshold.
+        start(false);
+      }
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (isClosed) {
+        return;
+      }
+      isClosed = true;
+      if (out == null) {
+        start(false);
+      }
+      try {
+        out.close();
+      } finally {
+        if (deflater != null) {
+          returnDeflater(deflater);
+          deflater = null;
+        }
+      }
+    }
+
+    @Override
+    public boolean isReady() {
+      // Writes either go into memory or block.
+      return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      throw new IllegalStateException("Non-blocking writes go through the unwrapped response.");
+    }
+
+    void clearHeldBytes() {
+      if (heldBytes != null) {
+        heldBytes.reset();
+      }
+    }
+
+    void abandon() {
+      isClosed = true;
+      if (deflater != null) {
+        returnDeflater(deflater);
+        deflater = null;
+      }
+    }
+
+    private void start(boolean isGzipped) throws IOException {
+      ServletOutputStream responseStream = response.getResponse().getOutputStream();
+      if (isGzipped) {
+        response.setGzipped();
+        deflater = takeDeflater();
+        out = new GzipStream(responseStream, deflater);
+      } else {
+        if (isClosed) {
+          // The whole body is held, so its length is known.
+          response.setUncompressedLength(heldBytes.size());
+        } else if (response.contentLength >= 0) {
+          response.setUncompressedLength(response.contentLength);
+        }
+        out = responseStream;
+      }
+      heldBytes.writeTo(out);
+      heldBytes = null;
+    }
+  }
+}
@@ -14,24 +14,22 @@
 
 package com.google.sps.servlets;
 
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import com.google.sps.data.Comment;
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.FetchOptions;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.sps.data.CommentFeed;
+import com.google.sps.data.CommentListener;
+import com.google.sps.data.CommentPurge;
+import com.google.sps.data.CommentStore;
+import com.google.sps.data.Json;
+import com.google.sps.data.PurgeProgress;
+import com.google.sps.data.Ranking;
+import com.google.sps.data.RateLimiter;
+import com.google.sps.data.SentimentPipeline;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.cloud.language.v1.Document;
-import com.google.cloud.language.v1.LanguageServiceClient;
-import com.google.cloud.language.v1.Sentiment;
 
 import java.io.IOException;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -40,16 +38,58 @@ import javax.servlet.http.HttpServletResponse;
 
 @WebServlet("/data")
 public class DataServlet extends HttpServlet {
-  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
   private UserService userService = UserServiceFactory.getUserService();
-  final private int MAX_LIMIT_COMMENTS = 50;
+  private CommentStore commentStore;
+  private Map<Ranking, CommentFeed> commentFeeds;
+  private CommentListener commentEvents;
+  private SentimentPipeline sentimentPipeline;
+  private CommentPurge commentPurge;
+  private RateLimiter rateLimiter;
+  final private int MAX_LIMIT_COMMENTS = CommentFeed.SIZE;
+  final private int MAX_PAGE_SIZE = 100;
   final private int MAX_CHAR_PER_COMMENT = 280;
   final private String ERR_MSG =
       String.format("Comment limit must be a non-negative integer, and do not exceed %d.",
           this.MAX_LIMIT_COMMENTS);
+  final private String PAGE_SIZE_ERR_MSG =
+      String.format("Page size must be a positive integer, and do not exceed %d.",
+          this.MAX_PAGE_SIZE);
+  final private String SORT_ERR_MSG = "Sort must be \"top\" or \"hot\".";
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void init() {
+    commentStore = (CommentStore) getServletContext()
+        .getAttribute(AppContextListener.COMMENT_STORE_ATTRIBUTE);
+    commentFeeds = (Map<Ranking, CommentFeed>) getServletContext()
+        .getAttribute(AppContextListener.COMMENT_FEEDS_ATTRIBUTE);
+    commentEvents = (CommentListener) getServletContext()
+        .getAttribute(AppContextListener.COMMENT_EVENTS_ATTRIBUTE);
+    sentimentPipeline = (SentimentPipeline) getServletContext()
+        .getAttribute(AppContextListener.SENTIMENT_PIPELINE_ATTRIBUTE);
+    commentPurge = (CommentPurge) getServletContext()
+        .getAttribute(AppContextListener.COMMENT_PURGE_ATTRIBUTE);
+    rateLimiter = (RateLimiter) getServletContext()
+        .getAttribute(AppContextListener.COMMENT_RATE_LIMITER_ATTRIBUTE);
+  }
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // "top" (the default) for the most liked comments, "hot" for the most liked for their age.
+    Ranking ranking;
+    String sort = request.getParameter("sort");
+    if (sort == null || sort.equals("top")) {
+      ranking = Ranking.TOP;
+    } else if (sort.equals("hot")) {
+      ranking = Ranking.HOT;
+    } else {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, SORT_ERR_MSG);
+      return;
+    }
+    if (request.getParameter("pageSize") != null) {
+      doGetPage(request, response, ranking);
+      return;
+    }
     int limit;
     try {
       limit = Integer.parseInt(request.getParameter("limit"));
@@ -66,20 +106,107 @@ public class DataServlet extends HttpServlet {
       return;
     }
 
-    Query q = new Query("Comment").addSort("likeCount", SortDirection.DESCENDING);
-    PreparedQuery pq = this.datastore.prepare(q);
+    // The top comments are cached as JSON, so this is a byte copy,
+    // or nothing at all if the client already has this version.
+    CommentFeed.Snapshot snapshot = commentFeeds.get(ranking).getSnapshot();
+    boolean isColumns = acceptsColumns(request.getHeader("Accept"));
+    String etag = isColumns ? snapshot.getColumnsETag(limit) : snapshot.getETag(limit);
+    response.setHeader("ETag", etag);
+    response.setHeader("Cache-Control", "no-cache");
+    response.addHeader("Vary", "Accept");
+    if (matchesETag(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+    response.setCharacterEncoding("UTF-8");
+    if (isColumns) {
+      response.setContentType(Json.COLUMNS_CONTENT_TYPE);
+      response.getOutputStream().write(snapshot.getColumnsJson(limit));
+    } else {
+      response.setContentType("application/json;");
+      response.getOutputStream().write(snapshot.getJson(limit));
+    }
+  }
 
-    List<Comment> comments = pq.asList(FetchOptions.Builder.withLimit(limit)).stream()
-        .map(entity -> new Comment((String) entity.getProperty("content"),
-            (long) entity.getKey().getId(), (long) entity.getProperty("likeCount"),
-            (String) entity.getProperty("email"),
-            // Datastore stores float numbers as double numbers
-            (float) (double) entity.getProperty("sentimentScore")))
-        .collect(Collectors.toList());
+  /***
+   * Returns whether an Accept header value asks for comments in columns (Json.toColumnsJson),
+   * which are smaller when many comments are fetched. Anything else gets a JSON array.
+   */
+  private static boolean acceptsColumns(String accept) {
+    if (accept == null) {
+      return false;
+    }
+    for (String mediaRange : accept.split(",")) {
+      String[] params = mediaRange.split(";");
+      if (!params[0].trim().equalsIgnoreCase(Json.COLUMNS_CONTENT_TYPE)) {
+        continue;
+      }
+      for (int i = 1; i < params.length; i++) {
+        // A quality of 0 means not acceptable.
+        if (params[i].trim().matches("q=0(\\.0{0,3})?")) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
 
-    String json = new Gson().toJson(comments);
+  /***
+   * Returns whether an If-None-Match header value lists the ETag.
+   */
+  private static boolean matchesETag(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.equals("*") || candidate.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /***
+   * Pages through all comments in the given ranking. REQUEST: "/data?pageSize=20&cursor=..." where
+   * cursor is the nextCursor of the previous page, or absent for the first page. Comments are
+   * written to the response as they are fetched, so memory does not grow with the page size.
+   * Since pages are read as separate queries, a comment whose likes change between pages may be
+   * skipped or repeated.
+   */
+  private void doGetPage(HttpServletRequest request, HttpServletResponse response,
+      Ranking ranking) throws IOException {
+    int pageSize;
+    try {
+      pageSize = Integer.parseInt(request.getParameter("pageSize"));
+    } catch (NumberFormatException e) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, PAGE_SIZE_ERR_MSG);
+      return;
+    }
+    if (pageSize <= 0 || pageSize > this.MAX_PAGE_SIZE) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, PAGE_SIZE_ERR_MSG);
+      return;
+    }
     response.setContentType("application/json;");
-    response.getWriter().println(json);
+    response.setCharacterEncoding("UTF-8");
+    JsonWriter writer = new JsonWriter(response.getWriter());
+    writer.beginObject();
+    writer.name("comments").beginArray();
+    String nextCursor;
+    try {
+      nextCursor = commentStore.getPage(ranking, pageSize, request.getParameter("cursor"),
+          comment -> Json.GSON.toJson(comment, Comment.class, writer));
+    } catch (IllegalArgumentException e) {
+      // The cursor is checked before any comment is written, so the response is not committed
+      // yet and sendError discards the partial JSON.
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor.");
+      return;
+    }
+    writer.endArray();
+    writer.name("nextCursor").value(nextCursor);
+    writer.endObject();
+    writer.flush();
   }
 
   @Override
@@ -88,6 +215,9 @@ public class DataServlet extends HttpServlet {
       response.sendError(HttpServletResponse.SC_FORBIDDEN, "Please log in before commenting.");
       return;
     }
+    if (!RateLimits.tryAcquire(rateLimiter, userService, request, response)) {
+      return;
+    }
     String userEmail = userService.getCurrentUser().getEmail();
 
     String newComment = request.getParameter("newComment");
@@ -102,37 +232,26 @@ public class DataServlet extends HttpServlet {
       return;
     }
     long timestamp = System.currentTimeMillis();
-    float sentimentScore = getSentimentScore(newComment);
-
-    Entity commentEntity = new Entity("Comment");
-    commentEntity.setProperty("content", newComment);
-    commentEntity.setProperty("timestamp", timestamp);
-    commentEntity.setProperty("likeCount", 0);
-    commentEntity.setProperty("email", userEmail);
-    commentEntity.setProperty("sentimentScore", sentimentScore);
-    this.datastore.put(commentEntity);
+
+    Comment comment = commentStore.create(newComment, userEmail, timestamp);
+    commentEvents.onCommentAdded(comment);
+    // Scored in the background, so that posting does not wait for the Natural Language API.
+    sentimentPipeline.submit(comment.id, newComment);
   }
 
   @Override
   public void doDelete(HttpServletRequest request, HttpServletResponse response)
       throws IOException {
-    Query q = new Query("Comment").setKeysOnly();
-    PreparedQuery pq = this.datastore.prepare(q);
-    for (Entity entity : pq.asIterable()) {
-      this.datastore.delete(entity.getKey());
+    // Deleting many comments can outlast the request, so it can run in the background;
+    // its progress is then reported by /purge.
+    PurgeProgress progress;
+    if (Boolean.parseBoolean(request.getParameter("async"))) {
+      progress = commentPurge.start();
+      response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    } else {
+      progress = commentPurge.run();
     }
-  }
-
-  /***
-   * Use Sentiment Analysis API and returns a float number between -1 and 1 as the sentiment score.
-   * The greater the score is, the more positive the msg is.
-   */
-  private float getSentimentScore(String msg) throws IOException {
-    Document doc = Document.newBuilder().setContent(msg).setType(Document.Type.PLAIN_TEXT).build();
-    LanguageServiceClient languageService = LanguageServiceClient.create();
-    Sentiment sentiment = languageService.analyzeSentiment(doc).getDocumentSentiment();
-    float score = sentiment.getScore();
-    languageService.close();
-    return score;
+    response.setContentType("application/json;");
+    response.getWriter().println(Json.GSON.toJson(progress));
   }
 }
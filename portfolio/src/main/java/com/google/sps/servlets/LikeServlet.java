@@ -1,31 +1,56 @@
 package com.google.sps.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.LikeBuffer;
+import com.google.sps.data.RateLimiter;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import java.util.ConcurrentModificationException;
-import com.google.appengine.api.datastore.Transaction;
-
 /*
- * REQUEST: a POST query string like this "/like?likeID=1234567890123456" Behavior: update "like"
- * counter in the database
+ * REQUEST: a POST query string like this "/like?commentId=1234567890123456" Behavior: record that
+ * the logged-in user likes the comment; DELETE takes the like back. Each user likes a comment at
+ * most once, so repeating a request changes nothing. The update is buffered and written within
+ * about a second.
  */
 
 @WebServlet("/like")
 public class LikeServlet extends HttpServlet {
-  private DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+  private UserService userService = UserServiceFactory.getUserService();
+  private LikeBuffer likeBuffer;
+  private RateLimiter rateLimiter;
+
+  @Override
+  public void init() {
+    likeBuffer = (LikeBuffer) getServletContext()
+        .getAttribute(AppContextListener.LIKE_BUFFER_ATTRIBUTE);
+    rateLimiter = (RateLimiter) getServletContext()
+        .getAttribute(AppContextListener.LIKE_RATE_LIMITER_ATTRIBUTE);
+  }
 
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    setLiked(request, response, true);
+  } // end of doPost
+
+  @Override
+  public void doDelete(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    setLiked(request, response, false);
+  }
+
+  private void setLiked(HttpServletRequest request, HttpServletResponse response, boolean isLiked)
+      throws IOException {
+    if (!userService.isUserLoggedIn()) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN, "Please log in before liking.");
+      return;
+    }
+    if (!RateLimits.tryAcquire(rateLimiter, userService, request, response)) {
+      return;
+    }
     long commentId;
     try {
       commentId = Long.parseLong(request.getParameter("commentId"));
@@ -33,44 +58,9 @@ public class LikeServlet extends HttpServlet {
       response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid comment ID.");
       return;
     }
-    Key commentKey = KeyFactory.createKey("Comment", commentId);
-    // Wrap retrieving and storing entity in one transaction
-    // to avoid counting collision.
-    boolean isWriteSuccessful = false;
-    int MAX_RETIRES = 3;
-    for (int retries = 0; !isWriteSuccessful && retries < MAX_RETIRES; retries++) {
-      try {
-        incrementLikeCounter(commentKey);
-        isWriteSuccessful = true;
-      } catch (EntityNotFoundException e) {
-        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Comment not found.");
-        break;
-      } catch (ConcurrentModificationException e) {
-        continue;
-      }
-    } // for loops
-    if (!isWriteSuccessful) {
-      response.sendError(HttpServletResponse.SC_CONFLICT, "Database busy.");
-      return;
-    }
-  } // end of doPost
-
-  private void incrementLikeCounter(Key key)
-      throws EntityNotFoundException, ConcurrentModificationException {
-    Transaction txn = datastore.beginTransaction();
-    Entity commentEntity;
-    try {
-      commentEntity = datastore.get(txn, key);
-      long count = (long) commentEntity.getProperty("likeCount");
-      ++count;
-      commentEntity.setProperty("likeCount", count);
-      datastore.put(txn, commentEntity);
-      txn.commit();
-    } finally {
-      if (txn.isActive()) {
-        txn.rollback();
-      }
-    }
+    // Likes are acknowledged right away and written to Datastore in batches, so a like costs no
+    // Datastore round trip on the request path, and repeated ones collapse into one write.
+    likeBuffer.setLiked(commentId, userService.getCurrentUser().getEmail(), isLiked);
   }
 
 }
@@ -2,27 +2,62 @@ package com.google.sps.servlets;
 
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
+import com.google.sps.data.Json;
 import com.google.sps.data.UserLoginData;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+/*
+ * Tells the page whether the user is logged in, and where to log in or out. Creating the URLs is a
+ * Users service call, and they only depend on the host the page was loaded from, so both responses
+ * are serialized once per host and every later request is a byte copy.
+ */
 @WebServlet("/login")
 public class LoginServlet extends HttpServlet {
+  final private static String URL_TO_REDIRECT = "/";
+  // Hosts come from the request, so a client could make up any number of them.
+  final private static int MAX_CACHED_HOSTS = 16;
+
   private UserService userService = UserServiceFactory.getUserService();
+  // "scheme://host:port" -> the responses for pages loaded from there.
+  private final Map<String, Responses> responsesByHost = new ConcurrentHashMap<>();
+
+  private static class Responses {
+    final byte[] loggedIn;
+    final byte[] loggedOut;
+
+    Responses(UserService userService) {
+      loggedIn = serialize(new UserLoginData(true, userService.createLogoutURL(URL_TO_REDIRECT)));
+      loggedOut = serialize(new UserLoginData(false, userService.createLoginURL(URL_TO_REDIRECT)));
+    }
+
+    private static byte[] serialize(UserLoginData userLoginData) {
+      return Json.GSON.toJson(userLoginData).getBytes(StandardCharsets.UTF_8);
+    }
+  }
 
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    response.setContentType("application/json;");
+    // Read from the request itself, so this needs no service call.
     boolean isLoggedIn = userService.isUserLoggedIn();
-    String urlToRedirect = "/";
-    String url = isLoggedIn ? userService.createLogoutURL(urlToRedirect)
-        : userService.createLoginURL(urlToRedirect);
-    UserLoginData userLoginData = new UserLoginData(isLoggedIn, url);
-    response.getWriter().println(new Gson().toJson(userLoginData));
+    String host = request.getScheme() + "://" + request.getServerName() + ":"
+        + request.getServerPort();
+    Responses responses = responsesByHost.get(host);
+    if (responses == null) {
+      responses = new Responses(userService);
+      if (responsesByHost.size() < MAX_CACHED_HOSTS) {
+        responsesByHost.putIfAbsent(host, responses);
+      }
+    }
+    response.setContentType("application/json;");
+    response.setCharacterEncoding("UTF-8");
+    response.getOutputStream().write(isLoggedIn ? responses.loggedIn : responses.loggedOut);
   }
 }
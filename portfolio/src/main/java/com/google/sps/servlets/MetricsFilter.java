@@ -0,0 +1,152 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.InstrumentedDatastoreService;
+import com.google.sps.data.RequestMetrics;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
+/*
+ * Records the latency, status code, concurrency and Datastore usage of every request into the
+ * RequestMetrics, labeled with the servlet path. Requests for anything but a servlet, such as
+ * static files or unknown paths, are labeled "static" so the number of labels stays bounded.
+ * Asynchronous requests are recorded when they complete, with the Datastore usage of their initial
+ * request thread. Each request is recorded exactly once, so the in-flight gauge never leaks.
+ */
+@WebFilter(urlPatterns = "/*", asyncSupported = true)
+public class MetricsFilter implements Filter {
+  final private static String STATIC_ENDPOINT = "static";
+
+  private RequestMetrics metrics;
+  private final Set<String> endpoints = new HashSet<>();
+
+  @Override
+  public void init(FilterConfig config) {
+    metrics = (RequestMetrics) config.getServletContext()
+        .getAttribute(AppContextListener.REQUEST_METRICS_ATTRIBUTE);
+    for (ServletRegistration registration :
+        config.getServletContext().getServletRegistrations().values()) {
+      for (String mapping : registration.getMappings()) {
+        // Exact paths only; "/" is the default servlet, which serves static files.
+        if (mapping.startsWith("/") && !mapping.contains("*") && !mapping.equals("/")) {
+          endpoints.add(mapping);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    String servletPath = httpRequest.getServletPath();
+    RequestMetrics.EndpointMetrics endpoint = metrics.forEndpoint(
+        endpoints.contains(servletPath) ? servletPath : STATIC_ENDPOINT, httpRequest.getMethod());
+
+    Recording recording = new Recording(endpoint, (HttpServletResponse) response);
+    endpoint.begin();
+    InstrumentedDatastoreService.beginRequest();
+    boolean isFailed = true;
+    try {
+      // The listener has to be attached when the request goes async: by the time this thread
+      // returns, another one may have completed it already.
+      chain.doFilter(new HttpServletRequestWrapper(httpRequest) {
+        @Override
+        public AsyncContext startAsync() {
+          return recording.attach(super.startAsync());
+        }
+
+        @Override
+        public AsyncContext startAsync(ServletRequest servletRequest,
+            ServletResponse servletResponse) {
+          return recording.attach(super.startAsync(servletRequest, servletResponse));
+        }
+      }, response);
+      isFailed = false;
+    } finally {
+      recording.onReturn(InstrumentedDatastoreService.endRequest(), isFailed);
+    }
+  }
+
+  /*
+   * The metrics of one request, recorded once its initial thread has returned and, if it went
+   * async, its async context has completed, whichever happens last.
+   */
+  private static class Recording implements AsyncListener {
+    private final RequestMetrics.EndpointMetrics endpoint;
+    private final HttpServletResponse response;
+    private final long startTime = System.nanoTime();
+    private boolean isAsync = false;
+    private boolean isCompleted = false;
+    private boolean isEnded = false;
+    // Set when the initial thread returns.
+    private InstrumentedDatastoreService.Usage usage;
+    private boolean isReturned = false;
+
+    Recording(RequestMetrics.EndpointMetrics endpoint, HttpServletResponse response) {
+      this.endpoint = endpoint;
+      this.response = response;
+    }
+
+    synchronized AsyncContext attach(AsyncContext asyncContext) {
+      isAsync = true;
+      asyncContext.addListener(this);
+      return asyncContext;
+    }
+
+    synchronized void onReturn(InstrumentedDatastoreService.Usage usage, boolean isFailed) {
+      this.usage = usage;
+      isReturned = true;
+      if (isFailed) {
+        // The container turns an exception into a 500.
+        end(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      } else if (!isAsync || isCompleted) {
+        end(response.getStatus());
+      }
+    }
+
+    @Override
+    public synchronized void onComplete(AsyncEvent event) {
+      isCompleted = true;
+      if (isReturned) {
+        end(response.getStatus());
+      }
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {}
+
+    @Override
+    public void onError(AsyncEvent event) {}
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      event.getAsyncContext().addListener(this);
+    }
+
+    private void end(int status) {
+      if (!isEnded) {
+        isEnded = true;
+        endpoint.end(status, System.nanoTime() - startTime, usage);
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {}
+}
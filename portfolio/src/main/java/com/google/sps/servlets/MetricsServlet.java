@@ -0,0 +1,34 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.RequestMetrics;
+
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/*
+ * REQUEST: a GET query "/metrics", usually from a Prometheus scraper. Behavior: returns the
+ * request latency histograms, status code counts, requests in flight, API call counts and cache
+ * hit and miss counts of this instance in the Prometheus text format.
+ */
+
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+  private RequestMetrics metrics;
+
+  @Override
+  public void init() {
+    metrics = (RequestMetrics) getServletContext()
+        .getAttribute(AppContextListener.REQUEST_METRICS_ATTRIBUTE);
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.setContentType("text/plain; version=0.0.4");
+    response.setCharacterEncoding("UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    metrics.write(response.getWriter());
+  }
+}
@@ -0,0 +1,32 @@
+package com.google.sps.servlets;
+
+import com.google.sps.data.CommentPurge;
+import com.google.sps.data.Json;
+
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/*
+ * REQUEST: a GET query "/purge". Behavior: returns the progress of the comment purge started by
+ * "DELETE /data?async=true", or of the last one that ran.
+ */
+
+@WebServlet("/purge")
+public class PurgeServlet extends HttpServlet {
+  private CommentPurge commentPurge;
+
+  @Override
+  public void init() {
+    commentPurge = (CommentPurge) getServletContext()
+        .getAttribute(AppContextListener.COMMENT_PURGE_ATTRIBUTE);
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    response.setContentType("application/json;");
+    response.getWriter().println(Json.GSON.toJson(commentPurge.getProgress()));
+  }
+}
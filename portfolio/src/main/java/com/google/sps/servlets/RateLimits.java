@@ -0,0 +1,38 @@
+package com.google.sps.servlets;
+
+import com.google.appengine.api.users.UserService;
+import com.google.sps.data.RateLimiter;
+
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/*
+ * Applies a RateLimiter to a request. Clients are told apart by the email of the logged-in user, or
+ * by IP address if nobody is logged in. Clients over their limit get a 429 with a Retry-After
+ * header, before the request costs any Datastore or API call.
+ */
+final class RateLimits {
+  // Not among the HttpServletResponse constants.
+  final private static int SC_TOO_MANY_REQUESTS = 429;
+
+  private RateLimits() {}
+
+  /***
+   * Returns whether the request may go on. If not, the error has already been sent.
+   */
+  static boolean tryAcquire(RateLimiter rateLimiter, UserService userService,
+      HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String clientKey = userService.isUserLoggedIn()
+        ? "user:" + userService.getCurrentUser().getEmail()
+        : "ip:" + request.getRemoteAddr();
+    long waitMs = rateLimiter.tryAcquire(clientKey);
+    if (waitMs == 0) {
+      return true;
+    }
+    // Retry-After is in whole seconds; rounding down would invite a retry that fails again.
+    response.setHeader("Retry-After", String.valueOf((waitMs + 999) / 1000));
+    response.sendError(SC_TOO_MANY_REQUESTS, "Too many requests. Please try again later.");
+    return false;
+  }
+}
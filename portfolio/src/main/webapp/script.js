@@ -19,6 +19,25 @@
 function loadPage() {
   getComments();
   addLoginStatus();
+  pollComments();
+}
+
+// How often to check for comments written by others. /data answers with a 304 and no body while
+// the comments are unchanged, so most checks cost the server nothing but a hash comparison.
+const POLL_INTERVAL_MS = 5000;
+
+// The ETag of the comments on display.
+let shownETag = null;
+
+/**
+ * Reloads the comments every POLL_INTERVAL_MS while the page is visible. The browser revalidates
+ * its cached copy with If-None-Match, so the list is only redrawn when it changed.
+ */
+function pollComments() {
+  setTimeout(() => {
+    const update = document.hidden ? Promise.resolve() : getComments();
+    update.catch(() => {}).then(pollComments);
+  }, POLL_INTERVAL_MS);
 }
 
 function findZoe() {
@@ -72,26 +91,55 @@ function grow() {
 
 function getComments() {
   const limit = document.getElementById('limit').value;
-
-  fetch(`/data?limit=${limit}`)
-    .then(response => response.json())
-    .then(comments => {
-      const commentsContainer = document.getElementById('comments-container');
-      commentsContainer.innerHTML = '';
-
-      for (const comment of comments) {
-        const commentElement = document.createElement('div');
-        commentElement.innerText =
-          `${comment.content} by ${comment.email} (Sentiment Score:${comment.sentimentScore})
-           -- ${comment.likeCount}`;
-        commentElement.className = 'comment-container';
-        const likeButton = createButton('👍', function () { likeComment(comment.id); })
-        commentElement.appendChild(likeButton);
-        commentsContainer.appendChild(commentElement);
+  const sort = document.getElementById('sort').value;
+
+  return fetch(`/data?limit=${limit}&sort=${sort}`,
+    { headers: { 'Accept': 'application/vnd.sps.comment-columns+json' } })
+    .then(response => {
+      const etag = response.headers.get('ETag');
+      if (etag !== null && etag === shownETag) {
+        return;
       }
+      return response.json().then(columns => {
+        shownETag = etag;
+        renderComments(fromColumns(columns));
+      });
     });
 }
 
+function renderComments(comments) {
+  const commentsContainer = document.getElementById('comments-container');
+  commentsContainer.innerHTML = '';
+
+  for (const comment of comments) {
+    const commentElement = document.createElement('div');
+    // The score is missing until the comment has been analyzed.
+    const sentimentScore =
+      comment.sentimentScore === undefined ? 'pending' : comment.sentimentScore;
+    commentElement.innerText =
+      `${comment.content} by ${comment.email} (Sentiment Score:${sentimentScore})
+       -- ${comment.likeCount}`;
+    commentElement.className = 'comment-container';
+    const likeButton = createButton('👍', function () { likeComment(comment.id); })
+    commentElement.appendChild(likeButton);
+    const unlikeButton = createButton('Unlike', function () { unlikeComment(comment.id); })
+    commentElement.appendChild(unlikeButton);
+    commentsContainer.appendChild(commentElement);
+  }
+}
+
+// Turns the column-oriented comments sent by /data back into one object per comment.
+function fromColumns(columns) {
+  return columns.id.map((id, i) => ({
+    id: id,
+    content: columns.content[i],
+    likeCount: columns.likeCount[i],
+    email: columns.email[i] === null ? undefined : columns.emails[columns.email[i]],
+    timestamp: columns.timestamp[i],
+    sentimentScore: columns.sentimentScore[i] === null ? undefined : columns.sentimentScore[i],
+  }));
+}
+
 function deleteComments() {
   const request = new Request('/data', { method: 'DELETE' });
   fetch(request).then(() => getComments());
@@ -108,6 +156,11 @@ function likeComment(commentId) {
   fetch(request).then(() => getComments());
 }
 
+function unlikeComment(commentId) {
+  const request = new Request(`/like?commentId=${commentId}`, { method: 'DELETE' })
+  fetch(request).then(() => getComments());
+}
+
 function addLoginStatus() {
   const request = new Request('/login', { method: 'GET' });
   fetch(request)
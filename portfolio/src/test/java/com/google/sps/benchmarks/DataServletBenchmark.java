@@ -0,0 +1,120 @@
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentStore;
+import com.google.sps.data.Json;
+import com.google.sps.data.Ranking;
+import com.google.sps.servlets.DataServlet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The steps of GET /data?limit=N: mapping "Comment" entities to comments, serializing them,
+ * reading the top comments from the local Datastore (what a feed reload does), and the whole
+ * request as served from the comment feed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataServletBenchmark {
+  final private static int NUM_COMMENTS = 50;
+
+  @Param({"1", "10", "50"})
+  public int limit;
+
+  private LocalApp app;
+  private CommentStore commentStore;
+  private DataServlet servlet;
+  private HttpServletRequest request;
+  private final FakeServlets.Response response = new FakeServlets.Response();
+  private List<Entity> entities;
+  private List<Comment> comments;
+
+  @Setup
+  public void setUp() throws ServletException {
+    app = new LocalApp(true);
+    commentStore = app.getCommentStore();
+    Map<Long, Long> likes = new HashMap<>();
+    for (int i = 0; i < NUM_COMMENTS; i++) {
+      Comment comment = commentStore.create("Comment number " + i, "user" + i + "@example.com",
+          System.currentTimeMillis());
+      likes.put(comment.id, (long) i);
+    }
+    commentStore.incrementLikes(likes);
+
+    comments = commentStore.getTopComments(Ranking.TOP, limit);
+    entities = new ArrayList<>();
+    for (Comment comment : comments) {
+      Entity entity = new Entity("Comment", comment.id);
+      entity.setProperty("content", comment.content);
+      entity.setProperty("timestamp", System.currentTimeMillis());
+      entity.setProperty("likeCount", comment.likeCount);
+      entity.setProperty("email", comment.email);
+      entity.setProperty("sentimentScore", 0.5);
+      entities.add(entity);
+    }
+
+    servlet = app.init(new DataServlet());
+    request = FakeServlets.newRequest(Collections.singletonMap("limit", String.valueOf(limit)),
+        Collections.emptyMap());
+  }
+
+  @TearDown
+  public void tearDown() {
+    app.close();
+  }
+
+  @Benchmark
+  public List<Comment> mapEntities() {
+    List<Comment> mapped = new ArrayList<>(entities.size());
+    for (Entity entity : entities) {
+      mapped.add(Comment.fromEntity(entity, (long) entity.getProperty("likeCount")));
+    }
+    return mapped;
+  }
+
+  @Benchmark
+  public String serialize() {
+    return Json.GSON.toJson(comments);
+  }
+
+  @Benchmark
+  public List<Comment> queryTopComments() {
+    return commentStore.getTopComments(Ranking.TOP, limit);
+  }
+
+  @Benchmark
+  public long doGet() throws IOException {
+    HttpServletResponse httpResponse = response.reset();
+    servlet.doGet(request, httpResponse);
+    if (response.getStatus() != HttpServletResponse.SC_OK) {
+      throw new IllegalStateException("GET /data failed with " + response.getStatus());
+    }
+    return response.getNumBytes();
+  }
+}
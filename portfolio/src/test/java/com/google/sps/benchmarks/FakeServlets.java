@@ -0,0 +1,170 @@
+package com.google.sps.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/*
+ * Just enough of the servlet container to call the servlets directly from a benchmark. Methods the
+ * servlets do not use return null, 0 or false.
+ */
+final class FakeServlets {
+  private FakeServlets() {
+    // Disallow instances.
+  }
+
+  /***
+   * Returns a servlet context that only holds attributes.
+   */
+  static ServletContext newContext() {
+    Map<String, Object> attributes = new ConcurrentHashMap<>();
+    return proxy(ServletContext.class, (method, args) -> {
+      switch (method) {
+        case "getAttribute":
+          return attributes.get((String) args[0]);
+        case "setAttribute":
+          attributes.put((String) args[0], args[1]);
+          return null;
+        case "removeAttribute":
+          attributes.remove((String) args[0]);
+          return null;
+        default:
+          return null;
+      }
+    });
+  }
+
+  static ServletConfig newConfig(ServletContext context) {
+    return proxy(ServletConfig.class, (method, args) ->
+        method.equals("getServletContext") ? context : null);
+  }
+
+  /***
+   * Returns a request with the given parameters and headers.
+   */
+  static HttpServletRequest newRequest(Map<String, String> parameters,
+      Map<String, String> headers) {
+    return proxy(HttpServletRequest.class, (method, args) -> {
+      switch (method) {
+        case "getParameter":
+          return parameters.get((String) args[0]);
+        case "getHeader":
+          return headers.get((String) args[0]);
+        default:
+          return null;
+      }
+    });
+  }
+
+  /*
+   * A response whose body is counted and thrown away.
+   */
+  static class Response {
+    private final OutputStream sink = new OutputStream() {
+      @Override
+      public void write(int b) {
+        numBytes++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        numBytes += len;
+      }
+    };
+    private final ServletOutputStream outputStream = new ServletOutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        sink.write(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        sink.write(b, off, len);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    private final PrintWriter writer = new PrintWriter(sink);
+    private final HttpServletResponse response = proxy(HttpServletResponse.class, this::invoke);
+    private int status;
+    private long numBytes;
+
+    /***
+     * Returns the response for the next request.
+     */
+    HttpServletResponse reset() {
+      status = HttpServletResponse.SC_OK;
+      numBytes = 0;
+      return response;
+    }
+
+    int getStatus() {
+      return status;
+    }
+
+    /***
+     * Returns the number of bytes written so far, flushing the writer first.
+     */
+    long getNumBytes() {
+      writer.flush();
+      return numBytes;
+    }
+
+    private Object invoke(String method, Object[] args) {
+      switch (method) {
+        case "getOutputStream":
+          return outputStream;
+        case "getWriter":
+          return writer;
+        case "setStatus":
+        case "sendError":
+          status = (int) args[0];
+          return null;
+        case "getStatus":
+          return status;
+        case "isCommitted":
+          return false;
+        default:
+          return null;
+      }
+    }
+  }
+
+  private interface Handler {
+    Object invoke(String method, Object[] args);
+  }
+
+  private static <T> T proxy(Class<T> type, Handler handler) {
+    return type.cast(Proxy.newProxyInstance(FakeServlets.class.getClassLoader(),
+        new Class<?>[] {type}, (proxy, method, args) -> {
+          Object result = handler.invoke(method.getName(), args);
+          if (result == null && method.getReturnType() == boolean.class) {
+            return false;
+          }
+          if (result == null && method.getReturnType() == int.class) {
+            return 0;
+          }
+          if (result == null && method.getReturnType() == long.class) {
+            return 0L;
+          }
+          return result;
+        }));
+  }
+}
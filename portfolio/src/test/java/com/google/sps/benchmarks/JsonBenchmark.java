@@ -0,0 +1,71 @@
+package com.google.sps.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.sps.data.Comment;
+import com.google.sps.data.Json;
+import com.google.sps.data.UserLoginData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Compares serializing a response with a new reflective Gson per request, as the servlets used to,
+ * against the shared Json.GSON with its hand-written adapters, and against the column-oriented
+ * JSON of Json.toColumnsJson. Run with -prof gc to see the allocation per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+  private List<Comment> comments;
+  private UserLoginData userLoginData;
+
+  @Setup
+  public void setUp() {
+    comments = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      comments.add(new Comment("Comment number " + i, 5629499534213120L + i, 50 - i,
+          "user" + i + "@example.com", 1590000000000L + i, (float) (i % 10) / 10));
+    }
+    userLoginData = new UserLoginData(true, "/_ah/logout?continue=%2F");
+  }
+
+  @Benchmark
+  public String commentsWithNewGson() {
+    return new Gson().toJson(comments);
+  }
+
+  @Benchmark
+  public String commentsWithSharedGson() {
+    return Json.GSON.toJson(comments);
+  }
+
+  @Benchmark
+  public byte[] commentsAsColumns() {
+    return Json.toColumnsJson(comments);
+  }
+
+  @Benchmark
+  public String loginWithNewGson() {
+    return new Gson().toJson(userLoginData);
+  }
+
+  @Benchmark
+  public String loginWithSharedGson() {
+    return Json.GSON.toJson(userLoginData);
+  }
+}
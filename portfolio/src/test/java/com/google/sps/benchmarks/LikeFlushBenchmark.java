@@ -0,0 +1,100 @@
+package com.google.sps.benchmarks;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentEvents;
+import com.google.sps.data.DatastoreCommentStore;
+import com.google.sps.data.LikeBuffer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The Datastore side of liking one hot comment, from 1 to 64 threads at once, against the local
+ * Datastore. Each thread stands for an instance with its own like buffer and store, and each call
+ * toggles the like of the thread's user and flushes it: one cross-group transaction that records
+ * the like and adds it to one of the comment's like counter shards. Transactions that keep
+ * colliding on a shard leave their like pending for the thread's next flush and make the store
+ * spread the comment over more shards, so the throughput shows how well sharding holds up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LikeFlushBenchmark {
+  private LocalApp app;
+  private long commentId;
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+    private static final AtomicInteger numUsers = new AtomicInteger();
+
+    final String userId = "user" + numUsers.incrementAndGet() + "@example.com";
+    LikeBuffer likeBuffer;
+    boolean isLiked;
+
+    @Setup
+    public void setUp() {
+      likeBuffer = new LikeBuffer(new DatastoreCommentStore(
+          DatastoreServiceFactory.getDatastoreService(),
+          DatastoreServiceFactory.getAsyncDatastoreService()), new CommentEvents());
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    app = new LocalApp(false);
+    Comment comment = app.getCommentStore().create("Like me", "user@example.com",
+        System.currentTimeMillis());
+    commentId = comment.id;
+  }
+
+  @TearDown
+  public void tearDown() {
+    app.close();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void flush1Thread(ThreadState state) {
+    likeAndFlush(state);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void flush4Threads(ThreadState state) {
+    likeAndFlush(state);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public void flush16Threads(ThreadState state) {
+    likeAndFlush(state);
+  }
+
+  @Benchmark
+  @Threads(64)
+  public void flush64Threads(ThreadState state) {
+    likeAndFlush(state);
+  }
+
+  private void likeAndFlush(ThreadState state) {
+    state.isLiked = !state.isLiked;
+    state.likeBuffer.setLiked(commentId, state.userId, state.isLiked);
+    state.likeBuffer.flush();
+  }
+}
@@ -0,0 +1,106 @@
+package com.google.sps.benchmarks;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.data.Comment;
+import com.google.sps.servlets.LikeServlet;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * POST and DELETE /like in turn for one hot comment, from 1 to 64 threads at once, each as its own
+ * user, against the local Datastore. Each call adds or replaces its user's pending like in the
+ * like buffer. Once a second the app's scheduler flushes the buffer in the background, recording
+ * every thread's like and adding the change to the comment's like counter shards; that part is
+ * measured by LikeFlushBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LikeServletBenchmark {
+  private LocalApp app;
+  private LikeServlet servlet;
+  private HttpServletRequest request;
+
+  @State(Scope.Thread)
+  public static class ThreadState {
+    private static final AtomicInteger numUsers = new AtomicInteger();
+
+    final FakeServlets.Response response = new FakeServlets.Response();
+    final ApiProxy.Environment user =
+        LocalApp.newUserEnvironment("user" + numUsers.incrementAndGet() + "@example.com");
+    boolean isLiked;
+  }
+
+  @Setup
+  public void setUp() throws ServletException {
+    app = new LocalApp(true);
+    Comment comment = app.getCommentStore().create("Like me", "user@example.com",
+        System.currentTimeMillis());
+    servlet = app.init(new LikeServlet());
+    request = FakeServlets.newRequest(
+        Collections.singletonMap("commentId", String.valueOf(comment.id)),
+        Collections.emptyMap());
+  }
+
+  @TearDown
+  public void tearDown() {
+    app.close();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public int like1Thread(ThreadState state) throws IOException {
+    return like(state);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public int like4Threads(ThreadState state) throws IOException {
+    return like(state);
+  }
+
+  @Benchmark
+  @Threads(16)
+  public int like16Threads(ThreadState state) throws IOException {
+    return like(state);
+  }
+
+  @Benchmark
+  @Threads(64)
+  public int like64Threads(ThreadState state) throws IOException {
+    return like(state);
+  }
+
+  private int like(ThreadState state) throws IOException {
+    ApiProxy.setEnvironmentForCurrentThread(state.user);
+    HttpServletResponse httpResponse = state.response.reset();
+    state.isLiked = !state.isLiked;
+    if (state.isLiked) {
+      servlet.doPost(request, httpResponse);
+    } else {
+      servlet.doDelete(request, httpResponse);
+    }
+    return state.response.getStatus();
+  }
+}
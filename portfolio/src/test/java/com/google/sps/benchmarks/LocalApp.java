@@ -0,0 +1,89 @@
+package com.google.sps.benchmarks;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.data.CommentStore;
+import com.google.sps.servlets.AppContextListener;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+
+/*
+ * The app running against the local Datastore and Users services, as set up by AppContextListener
+ * but with the local sentiment scorer. Benchmark threads, and the app's own background threads,
+ * all share the environment of the thread that started it.
+ */
+final class LocalApp {
+  private static volatile ApiProxy.Environment environment;
+
+  private final LocalServiceTestHelper helper;
+  private final ServletContext context = FakeServlets.newContext();
+  private final AppContextListener listener = new AppContextListener();
+
+  LocalApp(boolean isLoggedIn) {
+    helper = new LocalServiceTestHelper(
+        new LocalDatastoreServiceTestConfig().setDefaultHighRepJobPolicyUnappliedJobPercentage(0),
+        new LocalUserServiceTestConfig())
+        .setEnvIsLoggedIn(isLoggedIn)
+        .setEnvEmail("user@example.com")
+        .setEnvAuthDomain("example.com");
+    helper.setUp();
+    environment = ApiProxy.getCurrentEnvironment();
+    synchronized (LocalApp.class) {
+      if (ApiProxy.getEnvironmentFactory() == null) {
+        ApiProxy.setEnvironmentFactory(() -> environment);
+      }
+    }
+
+    System.setProperty("sps.comments.store", "datastore");
+    System.setProperty("sps.sentiment.scorer", "local");
+    // Every benchmark thread is the same client.
+    System.setProperty("sps.rateLimit.comments.perMinute", "0");
+    System.setProperty("sps.rateLimit.likes.perMinute", "0");
+    listener.contextInitialized(new ServletContextEvent(context));
+  }
+
+  /***
+   * Returns an environment for benchmark threads that act as another signed-in user, sharing
+   * everything else with the app's.
+   */
+  static ApiProxy.Environment newUserEnvironment(String email) {
+    ApiProxy.Environment shared = environment;
+    return (ApiProxy.Environment) Proxy.newProxyInstance(LocalApp.class.getClassLoader(),
+        new Class<?>[] {ApiProxy.Environment.class}, (proxy, method, args) -> {
+          if (method.getName().equals("getEmail")) {
+            return email;
+          }
+          try {
+            return method.invoke(shared, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+  }
+
+  CommentStore getCommentStore() {
+    return (CommentStore) context.getAttribute(AppContextListener.COMMENT_STORE_ATTRIBUTE);
+  }
+
+  /***
+   * Initializes a servlet with this app's context.
+   */
+  <T extends HttpServlet> T init(T servlet) throws ServletException {
+    servlet.init(FakeServlets.newConfig(context));
+    return servlet;
+  }
+
+  void close() {
+    // The thread may have acted as another user, but the helper has to end its own environment.
+    ApiProxy.setEnvironmentForCurrentThread(environment);
+    listener.contextDestroyed(new ServletContextEvent(context));
+    helper.tearDown();
+  }
+}
@@ -0,0 +1,60 @@
+package com.google.sps.benchmarks;
+
+import com.google.sps.servlets.LoginServlet;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * GET /login for a logged in and a logged out user, against the local Users service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoginServletBenchmark {
+  @Param({"true", "false"})
+  public boolean isLoggedIn;
+
+  private LocalApp app;
+  private LoginServlet servlet;
+  private HttpServletRequest request;
+  private final FakeServlets.Response response = new FakeServlets.Response();
+
+  @Setup
+  public void setUp() throws ServletException {
+    app = new LocalApp(isLoggedIn);
+    servlet = app.init(new LoginServlet());
+    request = FakeServlets.newRequest(Collections.emptyMap(), Collections.emptyMap());
+  }
+
+  @TearDown
+  public void tearDown() {
+    app.close();
+  }
+
+  @Benchmark
+  public long doGet() throws IOException {
+    HttpServletResponse httpResponse = response.reset();
+    servlet.doGet(request, httpResponse);
+    return response.getNumBytes();
+  }
+}
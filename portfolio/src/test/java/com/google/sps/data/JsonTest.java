@@ -0,0 +1,159 @@
+package com.google.sps.data;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/*
+ * Checks the hand-written adapters of Json.GSON against the reflection-based output of a default
+ * Gson, which they replace, and the column layout of Json.toColumnsJson against the comments it
+ * was built from.
+ */
+@RunWith(JUnit4.class)
+public final class JsonTest {
+  private static final Gson REFLECTION_GSON = new Gson();
+  // Quotes, backslashes, control and HTML characters, line separators and non-ASCII text.
+  private static final String TRICKY_TEXT =
+      "\"Hi\" \\ <b>bold</b> & 'quoted' = x\n\t\u0001    café 👍";
+
+  private static List<Comment> newComments() {
+    return Arrays.asList(
+        new Comment("Plain", 1, 0, "alice@example.com", 1590000000000L, 0.5f),
+        new Comment(TRICKY_TEXT, 2, 12, "bob@example.com", 1590000000001L, -0.1f),
+        new Comment("No score yet", 3, 3, "alice@example.com", 1590000000002L, null),
+        new Comment(null, Long.MAX_VALUE, Long.MIN_VALUE, null, 0, 1e-7f),
+        new Comment("", 5, -1, TRICKY_TEXT, -1, -0.0f));
+  }
+
+  @Test
+  public void commentsAreWrittenLikeReflection() {
+    for (Comment comment : newComments()) {
+      Assert.assertEquals(REFLECTION_GSON.toJson(comment), Json.GSON.toJson(comment));
+    }
+  }
+
+  @Test
+  public void commentListIsWrittenLikeReflection() {
+    List<Comment> comments = newComments();
+
+    Assert.assertEquals(REFLECTION_GSON.toJson(comments), Json.GSON.toJson(comments));
+  }
+
+  @Test
+  public void commentsAreReadLikeReflection() {
+    for (Comment comment : newComments()) {
+      String json = REFLECTION_GSON.toJson(comment);
+
+      Comment read = Json.GSON.fromJson(json, Comment.class);
+
+      Assert.assertEquals(json, REFLECTION_GSON.toJson(read));
+      Assert.assertEquals(REFLECTION_GSON.toJson(REFLECTION_GSON.fromJson(json, Comment.class)),
+          REFLECTION_GSON.toJson(read));
+    }
+  }
+
+  @Test
+  public void commentReadSkipsUnknownAndNullFields() {
+    Comment read = Json.GSON.fromJson(
+        "{\"id\":7,\"extra\":{\"a\":[1,2]},\"email\":null,\"sentimentScore\":null}", Comment.class);
+
+    Assert.assertEquals(7, read.id);
+    Assert.assertNull(read.email);
+    Assert.assertNull(read.sentimentScore);
+  }
+
+  @Test
+  public void nullsAreWrittenLikeReflection() {
+    Assert.assertEquals(REFLECTION_GSON.toJson(null, Comment.class),
+        Json.GSON.toJson(null, Comment.class));
+    Assert.assertNull(Json.GSON.fromJson("null", Comment.class));
+    Assert.assertNull(Json.GSON.fromJson("null", UserLoginData.class));
+  }
+
+  @Test
+  public void userLoginDataIsWrittenAndReadLikeReflection() {
+    List<UserLoginData> all = Arrays.asList(
+        new UserLoginData(true, "/_ah/logout?continue=%2F&x=<y>"),
+        new UserLoginData(false, "/_ah/login?continue=%2F"),
+        new UserLoginData(false, null));
+    for (UserLoginData userLoginData : all) {
+      String json = REFLECTION_GSON.toJson(userLoginData);
+
+      Assert.assertEquals(json, Json.GSON.toJson(userLoginData));
+      Assert.assertEquals(json,
+          REFLECTION_GSON.toJson(Json.GSON.fromJson(json, UserLoginData.class)));
+    }
+  }
+
+  @Test
+  public void columnsHoldEveryComment() {
+    List<Comment> comments = newComments();
+
+    List<Comment> read = fromColumns(Json.toColumnsJson(comments));
+
+    Assert.assertEquals(REFLECTION_GSON.toJson(comments), REFLECTION_GSON.toJson(read));
+  }
+
+  @Test
+  public void columnsEscapeStringsLikeGson() {
+    String json = new String(Json.toColumnsJson(newComments()), StandardCharsets.UTF_8);
+
+    Assert.assertTrue(json.contains(REFLECTION_GSON.toJson(TRICKY_TEXT)));
+  }
+
+  @Test
+  public void columnsWriteEachEmailOnce() {
+    JsonObject columns = parse(Json.toColumnsJson(newComments()));
+
+    Assert.assertEquals(
+        JsonParser.parseString("[\"alice@example.com\",\"bob@example.com\","
+            + REFLECTION_GSON.toJson(TRICKY_TEXT) + "]"),
+        columns.get("emails"));
+    Assert.assertEquals(JsonParser.parseString("[0,1,0,null,2]"), columns.get("email"));
+  }
+
+  @Test
+  public void noCommentsGiveEmptyColumns() {
+    Assert.assertEquals(
+        "{\"id\":[],\"content\":[],\"likeCount\":[],\"emails\":[],\"email\":[],"
+            + "\"timestamp\":[],\"sentimentScore\":[]}",
+        new String(Json.toColumnsJson(Collections.emptyList()), StandardCharsets.UTF_8));
+  }
+
+  /***
+   * Turns columns back into comments, the way the page does.
+   */
+  private static List<Comment> fromColumns(byte[] json) {
+    JsonObject columns = parse(json);
+    JsonArray emails = columns.getAsJsonArray("emails");
+    List<Comment> comments = new ArrayList<>();
+    for (int i = 0; i < columns.getAsJsonArray("id").size(); i++) {
+      JsonElement content = columns.getAsJsonArray("content").get(i);
+      JsonElement email = columns.getAsJsonArray("email").get(i);
+      JsonElement sentimentScore = columns.getAsJsonArray("sentimentScore").get(i);
+      comments.add(new Comment(
+          content.isJsonNull() ? null : content.getAsString(),
+          columns.getAsJsonArray("id").get(i).getAsLong(),
+          columns.getAsJsonArray("likeCount").get(i).getAsLong(),
+          email.isJsonNull() ? null : emails.get(email.getAsInt()).getAsString(),
+          columns.getAsJsonArray("timestamp").get(i).getAsLong(),
+          sentimentScore.isJsonNull() ? null : sentimentScore.getAsFloat()));
+    }
+    return comments;
+  }
+
+  private static JsonObject parse(byte[] json) {
+    return JsonParser.parseString(new String(json, StandardCharsets.UTF_8)).getAsJsonObject();
+  }
+}
@@ -0,0 +1,233 @@
+package com.google.sps.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/*
+ * Likes and unlikes of users through LikeBuffer, flushed and drained into an in-memory store that
+ * can be made to fail, checking the counts in the store and the changes heard by the listener.
+ */
+@RunWith(JUnit4.class)
+public final class LikeBufferTest {
+  private static final String ALICE = "alice@example.com";
+  private static final String BOB = "bob@example.com";
+
+  private FlakyStore store;
+  private RecordingListener listener;
+  private LikeBuffer likeBuffer;
+  private long commentId;
+
+  @Before
+  public void setUp() {
+    store = new FlakyStore();
+    listener = new RecordingListener();
+    likeBuffer = new LikeBuffer(store, listener);
+    commentId = store.create("A comment", ALICE, 1).id;
+  }
+
+  @Test
+  public void onlyTheLastWishBeforeAFlushCounts() {
+    likeBuffer.setLiked(commentId, ALICE, true);
+    likeBuffer.setLiked(commentId, ALICE, false);
+    likeBuffer.setLiked(commentId, ALICE, true);
+    likeBuffer.flush();
+
+    Assert.assertEquals(1, getLikeCount());
+    Assert.assertEquals(Collections.singletonList(Collections.singletonMap(commentId, 1L)),
+        listener.likeDeltas);
+  }
+
+  @Test
+  public void likeUnlikeLikeAcrossFlushes() {
+    likeBuffer.setLiked(commentId, ALICE, true);
+    likeBuffer.flush();
+    Assert.assertEquals(1, getLikeCount());
+
+    likeBuffer.setLiked(commentId, ALICE, false);
+    likeBuffer.flush();
+    Assert.assertEquals(0, getLikeCount());
+
+    likeBuffer.setLiked(commentId, ALICE, true);
+    likeBuffer.flush();
+    Assert.assertEquals(1, getLikeCount());
+
+    List<Map<Long, Long>> expected = new ArrayList<>();
+    expected.add(Collections.singletonMap(commentId, 1L));
+    expected.add(Collections.singletonMap(commentId, -1L));
+    expected.add(Collections.singletonMap(commentId, 1L));
+    Assert.assertEquals(expected, listener.likeDeltas);
+  }
+
+  @Test
+  public void repeatedTogglesOfManyUsers() {
+    for (int i = 0; i < 101; i++) {
+      likeBuffer.setLiked(commentId, ALICE, i % 2 == 0);
+      likeBuffer.setLiked(commentId, BOB, i % 2 == 1);
+      if (i % 10 == 0) {
+        likeBuffer.flush();
+      }
+    }
+    likeBuffer.flush();
+
+    // Alice's last wish was a like, Bob's an unlike.
+    Assert.assertEquals(1, getLikeCount());
+    Assert.assertEquals(1, listener.getTotalDelta());
+  }
+
+  @Test
+  public void repeatedLikeChangesNothing() {
+    likeBuffer.setLiked(commentId, ALICE, true);
+    likeBuffer.flush();
+    likeBuffer.setLiked(commentId, ALICE, true);
+    likeBuffer.flush();
+
+    Assert.assertEquals(1, getLikeCount());
+    Assert.assertEquals(1, listener.likeDeltas.size());
+  }
+
+  @Test
+  public void likeAfterAnUnlikeThroughAnotherInstanceIsRecorded() {
+    likeBuffer.setLiked(commentId, ALICE, true);
+    likeBuffer.flush();
+    LikeBuffer otherInstance = new LikeBuffer(store, new RecordingListener());
+    otherInstance.setLiked(commentId, ALICE, false);
+    otherInstance.flush();
+
+    // This instance last saw Alice like the comment, which no longer holds.
+    likeBuffer.setLiked(commentId, ALICE, true);
+    likeBuffer.flush();
+
+    Assert.assertEquals(1, getLikeCount());
+  }
+
+  @Test
+  public void failedFlushKeepsLikesForTheNextOne() {
+    store.isFailing = true;
+    likeBuffer.setLiked(commentId, ALICE, true);
+    likeBuffer.flush();
+    Assert.assertEquals(0, getLikeCount());
+    Assert.assertTrue(listener.likeDeltas.isEmpty());
+
+    store.isFailing = false;
+    likeBuffer.flush();
+
+    Assert.assertEquals(1, getLikeCount());
+    Assert.assertEquals(1, listener.getTotalDelta());
+  }
+
+  @Test
+  public void wishMadeDuringAFailedFlushWins() {
+    likeBuffer.setLiked(commentId, ALICE, true);
+    store.isFailing = true;
+    store.beforeSetLikes = () -> likeBuffer.setLiked(commentId, ALICE, false);
+    likeBuffer.flush();
+
+    store.isFailing = false;
+    store.beforeSetLikes = () -> {};
+    likeBuffer.flush();
+
+    Assert.assertEquals(0, getLikeCount());
+    Assert.assertTrue(listener.likeDeltas.isEmpty());
+  }
+
+  @Test
+  public void drainWritesEverything() {
+    likeBuffer.setLiked(commentId, ALICE, true);
+    likeBuffer.setLiked(commentId, BOB, true);
+
+    likeBuffer.drain(1000);
+
+    Assert.assertEquals(2, getLikeCount());
+    Assert.assertTrue(store.takeUnrecordedLikes().isEmpty());
+  }
+
+  @Test
+  public void drainSavesWhatItCannotWriteForAnotherInstance() {
+    store.isFailing = true;
+    likeBuffer.setLiked(commentId, ALICE, true);
+    likeBuffer.setLiked(commentId, BOB, true);
+    likeBuffer.setLiked(commentId, BOB, false);
+
+    likeBuffer.drain(0);
+    Assert.assertEquals(0, getLikeCount());
+
+    store.isFailing = false;
+    LikeBuffer nextInstance = new LikeBuffer(store, listener);
+    nextInstance.restoreUnrecorded();
+    nextInstance.flush();
+
+    Assert.assertEquals(1, getLikeCount());
+    Assert.assertEquals(1, listener.getTotalDelta());
+  }
+
+  @Test
+  public void restoredLikesDoNotOverrideNewerWishes() {
+    Map<String, Boolean> saved = new HashMap<>();
+    saved.put(ALICE, true);
+    store.saveUnrecordedLikes(Collections.singletonMap(commentId, saved));
+    likeBuffer.setLiked(commentId, ALICE, false);
+
+    likeBuffer.restoreUnrecorded();
+    likeBuffer.flush();
+
+    Assert.assertEquals(0, getLikeCount());
+  }
+
+  private long getLikeCount() {
+    return store.getTopComments(Ranking.TOP, 1).get(0).likeCount;
+  }
+
+  /*
+   * An in-memory store whose like writes throw while isFailing is set, after running
+   * beforeSetLikes.
+   */
+  private static class FlakyStore extends InMemoryCommentStore {
+    volatile boolean isFailing = false;
+    volatile Runnable beforeSetLikes = () -> {};
+
+    @Override
+    public LikeChanges setLikes(Map<Long, Map<String, Boolean>> likes) {
+      beforeSetLikes.run();
+      if (isFailing) {
+        throw new IllegalStateException("Store unavailable");
+      }
+      return super.setLikes(likes);
+    }
+  }
+
+  private static class RecordingListener implements CommentListener {
+    final List<Map<Long, Long>> likeDeltas = new ArrayList<>();
+
+    long getTotalDelta() {
+      long total = 0;
+      for (Map<Long, Long> deltas : likeDeltas) {
+        for (long delta : deltas.values()) {
+          total += delta;
+        }
+      }
+      return total;
+    }
+
+    @Override
+    public void onCommentAdded(Comment comment) {}
+
+    @Override
+    public void onCommentsDeleted() {}
+
+    @Override
+    public void onLikesAdded(Map<Long, Long> likeDeltas, long writeStartTime) {
+      this.likeDeltas.add(new HashMap<>(likeDeltas));
+    }
+
+    @Override
+    public void onSentimentScored(Map<Long, Float> sentimentScores) {}
+  }
+}
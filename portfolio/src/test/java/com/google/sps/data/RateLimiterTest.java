@@ -0,0 +1,115 @@
+package com.google.sps.data;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/*
+ * Runs a RateLimiter of 6 requests per minute with bursts of 3 on a clock that only moves when
+ * the test moves it.
+ */
+@RunWith(JUnit4.class)
+public final class RateLimiterTest {
+  private static final long INTERVAL_MS = 10000;
+
+  private long nowNanos;
+  private RateLimiter rateLimiter;
+
+  @Before
+  public void setUp() {
+    // Far from 0, as System.nanoTime() may be.
+    nowNanos = 1L << 50;
+    rateLimiter = new RateLimiter(6, 3, () -> nowNanos);
+  }
+
+  @Test
+  public void burstIsAllowedAtOnce() {
+    Assert.assertEquals(0, rateLimiter.tryAcquire("alice"));
+    Assert.assertEquals(0, rateLimiter.tryAcquire("alice"));
+    Assert.assertEquals(0, rateLimiter.tryAcquire("alice"));
+
+    Assert.assertEquals(INTERVAL_MS, rateLimiter.tryAcquire("alice"));
+  }
+
+  @Test
+  public void keysHaveTheirOwnBuckets() {
+    drain("alice");
+
+    Assert.assertEquals(0, rateLimiter.tryAcquire("bob"));
+  }
+
+  @Test
+  public void tokenIsBackAfterOneInterval() {
+    drain("alice");
+
+    advanceMs(INTERVAL_MS - 1);
+    Assert.assertEquals(1, rateLimiter.tryAcquire("alice"));
+    advanceMs(1);
+    Assert.assertEquals(0, rateLimiter.tryAcquire("alice"));
+    Assert.assertEquals(INTERVAL_MS, rateLimiter.tryAcquire("alice"));
+  }
+
+  @Test
+  public void bucketRefillsUpToTheBurstOnly() {
+    drain("alice");
+
+    advanceMs(10 * INTERVAL_MS);
+    drain("alice");
+  }
+
+  @Test
+  public void rejectedRequestsTakeNothing() {
+    drain("alice");
+    for (int i = 0; i < 10; i++) {
+      rateLimiter.tryAcquire("alice");
+    }
+
+    advanceMs(INTERVAL_MS);
+    Assert.assertEquals(0, rateLimiter.tryAcquire("alice"));
+  }
+
+  @Test
+  public void waitShrinksAsTimePasses() {
+    drain("alice");
+
+    advanceMs(2500);
+    Assert.assertEquals(INTERVAL_MS - 2500, rateLimiter.tryAcquire("alice"));
+  }
+
+  @Test
+  public void evictIdleKeepsBucketsThatAreNotFull() {
+    drain("alice");
+    rateLimiter.evictIdle();
+
+    Assert.assertEquals(INTERVAL_MS, rateLimiter.tryAcquire("alice"));
+
+    advanceMs(3 * INTERVAL_MS);
+    rateLimiter.evictIdle();
+    drain("alice");
+  }
+
+  @Test
+  public void nonPositiveRateAllowsEverything() {
+    RateLimiter unlimited = new RateLimiter(0, 0, () -> nowNanos);
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals(0, unlimited.tryAcquire("alice"));
+    }
+  }
+
+  /***
+   * Takes the three tokens of a full bucket and checks that the next request has to wait.
+   */
+  private void drain(String key) {
+    for (int i = 0; i < 3; i++) {
+      Assert.assertEquals(0, rateLimiter.tryAcquire(key));
+    }
+    Assert.assertTrue(rateLimiter.tryAcquire(key) > 0);
+  }
+
+  private void advanceMs(long ms) {
+    nowNanos += TimeUnit.MILLISECONDS.toNanos(ms);
+  }
+}
@@ -0,0 +1,249 @@
+package com.google.sps.servlets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/*
+ * Runs bodies below and above the threshold through CompressionFilter, written with the writer or
+ * the output stream, and reads back what would reach the client.
+ */
+@RunWith(JUnit4.class)
+public final class CompressionFilterTest {
+  // The default sps.compression.minBytes.
+  private static final int MIN_BYTES = 1024;
+
+  private CompressionFilter filter;
+  private FakeResponse response;
+
+  @Before
+  public void setUp() {
+    filter = new CompressionFilter();
+    filter.init(null);
+    response = new FakeResponse();
+  }
+
+  @After
+  public void tearDown() {
+    filter.destroy();
+  }
+
+  @Test
+  public void shortBodyIsSentAsIs() throws Exception {
+    String body = repeat("short", 10);
+
+    filter.doFilter(newRequest("gzip"), response.proxy, writeWithWriter(body));
+
+    Assert.assertNull(response.headers.get("Content-Encoding"));
+    Assert.assertEquals(Long.valueOf(body.length()), response.contentLength);
+    Assert.assertEquals(body, response.getBody());
+  }
+
+  @Test
+  public void longBodyFromWriterIsGzipped() throws Exception {
+    String body = repeat("{\"content\":\"a comment\"},", 200);
+
+    filter.doFilter(newRequest("gzip"), response.proxy, writeWithWriter(body));
+
+    Assert.assertEquals("gzip", response.headers.get("Content-Encoding"));
+    Assert.assertNull(response.contentLength);
+    Assert.assertEquals(body, response.getGunzippedBody());
+  }
+
+  @Test
+  public void longBodyFromStreamIsGzipped() throws Exception {
+    // Small writes that cross the threshold, then one large write.
+    String start = repeat("x", MIN_BYTES / 2);
+    String end = repeat("0123456789", 1000);
+    FilterChain chain = (request, servletResponse) -> {
+      servletResponse.setContentType("application/json;");
+      ServletOutputStream out = servletResponse.getOutputStream();
+      out.write(start.getBytes(StandardCharsets.UTF_8));
+      out.write(start.getBytes(StandardCharsets.UTF_8));
+      out.write(end.getBytes(StandardCharsets.UTF_8));
+    };
+
+    filter.doFilter(newRequest("gzip"), response.proxy, chain);
+
+    Assert.assertEquals("gzip", response.headers.get("Content-Encoding"));
+    Assert.assertEquals(start + start + end, response.getGunzippedBody());
+  }
+
+  @Test
+  public void bodyFlushedBeforeThresholdIsSentAsIs() throws Exception {
+    String start = "first chunk";
+    String end = repeat("more after the flush ", 200);
+    FilterChain chain = (request, servletResponse) -> {
+      servletResponse.setContentType("text/plain");
+      PrintWriter writer = servletResponse.getWriter();
+      writer.print(start);
+      writer.flush();
+      writer.print(end);
+    };
+
+    filter.doFilter(newRequest("gzip"), response.proxy, chain);
+
+    Assert.assertNull(response.headers.get("Content-Encoding"));
+    Assert.assertEquals(start + end, response.getBody());
+  }
+
+  @Test
+  public void longBodyIsSentAsIsWithoutGzip() throws Exception {
+    String body = repeat("plain text ", 500);
+
+    filter.doFilter(newRequest("gzip;q=0, identity"), response.proxy, writeWithWriter(body));
+
+    Assert.assertNull(response.headers.get("Content-Encoding"));
+    Assert.assertEquals(body, response.getBody());
+  }
+
+  @Test
+  public void deflatersAreReused() throws Exception {
+    String body = repeat("{\"likeCount\":1},", 500);
+
+    for (int i = 0; i < 3; i++) {
+      response = new FakeResponse();
+      filter.doFilter(newRequest("gzip"), response.proxy, writeWithWriter(body));
+
+      Assert.assertEquals(body, response.getGunzippedBody());
+    }
+  }
+
+  private static FilterChain writeWithWriter(String body) {
+    return (request, servletResponse) -> {
+      servletResponse.setContentType("application/json;");
+      servletResponse.setCharacterEncoding("UTF-8");
+      servletResponse.setContentLength(body.length());
+      servletResponse.getWriter().print(body);
+    };
+  }
+
+  private static String repeat(String text, int count) {
+    StringBuilder repeated = new StringBuilder();
+    for (int i = 0; i < count; i++) {
+      repeated.append(text);
+    }
+    return repeated.toString();
+  }
+
+  private static HttpServletRequest newRequest(String acceptEncoding) {
+    return (HttpServletRequest) Proxy.newProxyInstance(
+        CompressionFilterTest.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getHeader":
+              return "Accept-Encoding".equalsIgnoreCase((String) args[0]) ? acceptEncoding : null;
+            case "isAsyncStarted":
+              return false;
+            default:
+              return null;
+          }
+        });
+  }
+
+  /*
+   * A response that keeps its headers and body, written as UTF-8. Methods the filter does not use
+   * return null.
+   */
+  private static class FakeResponse {
+    private final Map<String, String> headers = new HashMap<>();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final ServletOutputStream outputStream = new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        body.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    private final HttpServletResponse proxy = (HttpServletResponse) Proxy.newProxyInstance(
+        CompressionFilterTest.class.getClassLoader(), new Class<?>[] {HttpServletResponse.class},
+        (proxy, method, args) -> invoke(method.getName(), args));
+    private final PrintWriter writer =
+        new PrintWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+    private String contentType;
+    private String characterEncoding = "ISO-8859-1";
+    private Long contentLength;
+
+    String getBody() {
+      writer.flush();
+      return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    String getGunzippedBody() throws IOException {
+      ByteArrayOutputStream gunzipped = new ByteArrayOutputStream();
+      try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))) {
+        byte[] buffer = new byte[4096];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+          gunzipped.write(buffer, 0, length);
+        }
+      }
+      return new String(gunzipped.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private Object invoke(String method, Object[] args) {
+      switch (method) {
+        case "getOutputStream":
+          return outputStream;
+        case "getWriter":
+          return writer;
+        case "setHeader":
+        case "addHeader":
+          headers.put((String) args[0], (String) args[1]);
+          return null;
+        case "containsHeader":
+          return headers.containsKey((String) args[0]);
+        case "setContentType":
+          contentType = (String) args[0];
+          return null;
+        case "getContentType":
+          return contentType;
+        case "setCharacterEncoding":
+          characterEncoding = (String) args[0];
+          return null;
+        case "getCharacterEncoding":
+          return characterEncoding;
+        case "setContentLength":
+          contentLength = (long) (int) args[0];
+          return null;
+        case "setContentLengthLong":
+          contentLength = (long) args[0];
+          return null;
+        case "getStatus":
+          return HttpServletResponse.SC_OK;
+        case "isCommitted":
+          return false;
+        default:
+          return null;
+      }
+    }
+  }
+}
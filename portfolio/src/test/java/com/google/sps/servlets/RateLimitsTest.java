@@ -0,0 +1,93 @@
+package com.google.sps.servlets;
+
+import com.google.appengine.api.users.UserService;
+import com.google.sps.data.RateLimiter;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/*
+ * Sends requests of a client that is not logged in through RateLimits, with a limiter of 6
+ * requests per minute and no burst on a clock that only moves when the test moves it, and checks
+ * the error and Retry-After header of those over the limit.
+ */
+@RunWith(JUnit4.class)
+public final class RateLimitsTest {
+  private long nowNanos;
+  private RateLimiter rateLimiter;
+  private final Map<String, String> headers = new HashMap<>();
+  private int status;
+
+  @Before
+  public void setUp() {
+    nowNanos = 1L << 50;
+    rateLimiter = new RateLimiter(6, 1, () -> nowNanos);
+  }
+
+  @Test
+  public void requestWithinTheLimitGoesOn() throws Exception {
+    Assert.assertTrue(tryAcquire());
+    Assert.assertEquals(0, status);
+    Assert.assertNull(headers.get("Retry-After"));
+  }
+
+  @Test
+  public void requestOverTheLimitGetsTooManyRequests() throws Exception {
+    tryAcquire();
+
+    Assert.assertFalse(tryAcquire());
+    Assert.assertEquals(429, status);
+    Assert.assertEquals("10", headers.get("Retry-After"));
+  }
+
+  @Test
+  public void retryAfterRoundsUp() throws Exception {
+    tryAcquire();
+    nowNanos += TimeUnit.MILLISECONDS.toNanos(8500);
+
+    Assert.assertFalse(tryAcquire());
+    // 1.5 seconds left; a retry after 1 second would be turned away again.
+    Assert.assertEquals("2", headers.get("Retry-After"));
+  }
+
+  @Test
+  public void retryAfterIsAtLeastOneSecond() throws Exception {
+    tryAcquire();
+    nowNanos += TimeUnit.MILLISECONDS.toNanos(9999);
+
+    Assert.assertFalse(tryAcquire());
+    Assert.assertEquals("1", headers.get("Retry-After"));
+  }
+
+  private boolean tryAcquire() throws Exception {
+    UserService userService = (UserService) Proxy.newProxyInstance(
+        RateLimitsTest.class.getClassLoader(), new Class<?>[] {UserService.class},
+        (proxy, method, args) -> method.getName().equals("isUserLoggedIn") ? false : null);
+    HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+        RateLimitsTest.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class},
+        (proxy, method, args) -> method.getName().equals("getRemoteAddr") ? "203.0.113.7" : null);
+    HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+        RateLimitsTest.class.getClassLoader(), new Class<?>[] {HttpServletResponse.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "setHeader":
+              headers.put((String) args[0], (String) args[1]);
+              return null;
+            case "sendError":
+              status = (int) args[0];
+              return null;
+            default:
+              return null;
+          }
+        });
+    return RateLimits.tryAcquire(rateLimiter, userService, request, response);
+  }
+}
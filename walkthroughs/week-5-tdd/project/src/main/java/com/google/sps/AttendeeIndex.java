@@ -0,0 +1,142 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index from each attendee to the ranges of the events they attend, sorted by start, so that a
+ * meeting query only reads the calendars of the people it is about. Adding or removing an event
+ * updates the lists of its attendees only. Each attendee's busy minutes are also kept as a
+ * {@link DayBitset}, so combining the days of the attendees of a query takes no sorting.
+ *
+ * <p>The index is not thread-safe: build it, then share it read-only, or guard all access to it.
+ */
+public final class AttendeeIndex {
+  private final Map<String, List<TimeRange>> busyRanges = new HashMap<>();
+  private final Map<String, DayBitset> busyMinutes = new HashMap<>();
+
+  /**
+   * Creates an empty index.
+   */
+  public AttendeeIndex() {}
+
+  /**
+   * Creates an index of {@code events}.
+   */
+  public AttendeeIndex(Collection<Event> events) {
+    for (Event event : events) {
+      add(event);
+    }
+  }
+
+  /**
+   * Adds the range of {@code event} to the lists of all its attendees.
+   */
+  public void add(Event event) {
+    TimeRange when = event.getWhen();
+    for (String attendee : event.getAttendees()) {
+      List<TimeRange> ranges = busyRanges.computeIfAbsent(attendee, key -> new ArrayList<>());
+      ranges.add(insertionPoint(ranges, when), when);
+      busyMinutes.computeIfAbsent(attendee, key -> new DayBitset()).setBusy(when);
+    }
+  }
+
+  /**
+   * Removes the range of {@code event} from the lists of all its attendees. Returns whether the
+   * event's range was found for all of them, as it is if the event was added before.
+   */
+  public boolean remove(Event event) {
+    TimeRange when = event.getWhen();
+    boolean isFound = true;
+    for (String attendee : event.getAttendees()) {
+      List<TimeRange> ranges = busyRanges.get(attendee);
+      int index = ranges == null ? -1 : indexOf(ranges, when);
+      if (index < 0) {
+        isFound = false;
+        continue;
+      }
+      ranges.remove(index);
+      if (ranges.isEmpty()) {
+        busyRanges.remove(attendee);
+        busyMinutes.remove(attendee);
+        continue;
+      }
+      // Other events may cover some of the same minutes, so the day is rebuilt from them.
+      DayBitset minutes = busyMinutes.get(attendee);
+      minutes.clear();
+      for (TimeRange range : ranges) {
+        minutes.setBusy(range);
+      }
+    }
+    return isFound;
+  }
+
+  /**
+   * Returns a read-only view of the ranges when {@code attendee} is busy, sorted by start. Ranges
+   * may overlap.
+   */
+  public List<TimeRange> getBusyRanges(String attendee) {
+    List<TimeRange> ranges = busyRanges.get(attendee);
+    return ranges == null ? Collections.emptyList() : Collections.unmodifiableList(ranges);
+  }
+
+  /**
+   * Marks the minutes when {@code attendee} is busy as busy in {@code day}.
+   */
+  public void markBusy(String attendee, DayBitset day) {
+    DayBitset minutes = busyMinutes.get(attendee);
+    if (minutes != null) {
+      day.or(minutes);
+    }
+  }
+
+  /**
+   * Returns the index after the last range that starts no later than {@code range}, so that
+   * ranges with equal starts stay in the order they were added.
+   */
+  private static int insertionPoint(List<TimeRange> ranges, TimeRange range) {
+    int low = 0;
+    int high = ranges.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (ranges.get(middle).start() <= range.start()) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns the index of a range equal to {@code range}, or -1.
+   */
+  private static int indexOf(List<TimeRange> ranges, TimeRange range) {
+    // Equal ranges have equal starts, so they are among the ones just before the insertion point.
+    for (int i = insertionPoint(ranges, range) - 1;
+        i >= 0 && ranges.get(i).start() == range.start(); i--) {
+      if (ranges.get(i).equals(range)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
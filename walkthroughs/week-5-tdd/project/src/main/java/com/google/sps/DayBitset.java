@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The busy minutes of one day, one bit per minute in 23 longs. Marking a range busy and combining
+ * the days of several attendees are a handful of word operations with no allocation, and free
+ * ranges are found by scanning for the next clear or set bit a word at a time.
+ */
+public final class DayBitset {
+  private static final int MINUTES = TimeRange.WHOLE_DAY.duration();
+  private static final int WORDS = (MINUTES + Long.SIZE - 1) / Long.SIZE;
+
+  // Bit m of words[m / 64] is set if minute m is busy. Bits past the end of the day stay clear.
+  private final long[] words = new long[WORDS];
+
+  /**
+   * Marks the minutes of {@code range} busy. Minutes outside the day are ignored.
+   */
+  public void setBusy(TimeRange range) {
+    int start = Math.max(range.start(), TimeRange.START_OF_DAY);
+    int end = Math.min(range.end(), MINUTES);
+    if (start >= end) {
+      return;
+    }
+    int first = start >>> 6;
+    int last = (end - 1) >>> 6;
+    // Shifts only use the low 6 bits of the distance, so these keep the bits from start on and
+    // the bits before end within their words.
+    long firstMask = -1L << start;
+    long lastMask = -1L >>> -end;
+    if (first == last) {
+      words[first] |= firstMask & lastMask;
+      return;
+    }
+    words[first] |= firstMask;
+    for (int i = first + 1; i < last; i++) {
+      words[i] = -1L;
+    }
+    words[last] |= lastMask;
+  }
+
+  /**
+   * Marks the minutes busy in {@code other} busy in this day too.
+   */
+  public void or(DayBitset other) {
+    for (int i = 0; i < WORDS; i++) {
+      words[i] |= other.words[i];
+    }
+  }
+
+  /**
+   * Marks every minute free.
+   */
+  public void clear() {
+    for (int i = 0; i < WORDS; i++) {
+      words[i] = 0;
+    }
+  }
+
+  /**
+   * Returns the maximal free ranges of at least {@code duration} minutes, in chronological order.
+   */
+  public List<TimeRange> getFreeRanges(long duration) {
+    List<TimeRange> free = new ArrayList<>();
+    int start = nextFree(TimeRange.START_OF_DAY);
+    while (start < MINUTES) {
+      int end = nextBusy(start);
+      if (end - start >= duration) {
+        free.add(TimeRange.fromStartEnd(start, end, false));
+      }
+      start = end < MINUTES ? nextFree(end) : MINUTES;
+    }
+    return free;
+  }
+
+  /**
+   * Returns the first busy minute from {@code minute} on, or the end of the day.
+   */
+  private int nextBusy(int minute) {
+    int i = minute >>> 6;
+    long word = words[i] & (-1L << minute);
+    while (word == 0) {
+      if (++i == WORDS) {
+        return MINUTES;
+      }
+      word = words[i];
+    }
+    return i * Long.SIZE + Long.numberOfTrailingZeros(word);
+  }
+
+  /**
+   * Returns the first free minute from {@code minute} on, or the end of the day.
+   */
+  private int nextFree(int minute) {
+    int i = minute >>> 6;
+    long word = ~words[i] & (-1L << minute);
+    while (word == 0) {
+      if (++i == WORDS) {
+        return MINUTES;
+      }
+      word = ~words[i];
+    }
+    // The clear bits past the end of the day count as free, so cap at the end.
+    return Math.min(i * Long.SIZE + Long.numberOfTrailingZeros(word), MINUTES);
+  }
+}
@@ -0,0 +1,29 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Collection;
+
+/**
+ * Where a long-range meeting query reads events from, one time range at a time, so that a calendar
+ * spanning months never has to be loaded at once.
+ */
+public interface EventSource {
+  /**
+   * Returns the events overlapping {@code range}, in any order. An event overlapping several of the
+   * ranges asked for may be returned for each of them.
+   */
+  Collection<Event> getEvents(TimeRange range);
+}
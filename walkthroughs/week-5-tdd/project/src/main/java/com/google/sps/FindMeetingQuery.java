@@ -14,10 +14,278 @@
 
 package com.google.sps;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
+/**
+ * Finds the times of the day when all the attendees of a meeting request are free for the whole
+ * meeting.
+ */
 public final class FindMeetingQuery {
+  // Kinds of endpoints of the ranges of meeting starts ruled out by someone's event, stored in the
+  // low 2 bits of each endpoint.
+  private static final int REQUIRED_START = 0;
+  private static final int REQUIRED_END = 1;
+  private static final int OPTIONAL_START = 2;
+  private static final int OPTIONAL_END = 3;
+  // How much of a long horizon's events are read at once.
+  private static final int HORIZON_CHUNK_MINUTES = 7 * TimeRange.WHOLE_DAY.duration();
+
+  /**
+   * Returns the free ranges of at least {@code request.getDuration()} minutes, in chronological
+   * order. Only events with at least one of the request's attendees count. Their ranges are sorted
+   * by start and swept once, so a query takes O(n log n) time for n events and allocates nothing
+   * per event but a list slot.
+   */
   public Collection<TimeRange> query(Collection<Event> events, MeetingRequest request) {
-    throw new UnsupportedOperationException("TODO: Implement this method.");
+    if (request.getDuration() > TimeRange.WHOLE_DAY.duration()) {
+      return new ArrayList<>();
+    }
+
+    Set<String> attendees = new HashSet<>(request.getAttendees());
+    List<TimeRange> busy = new ArrayList<>();
+    for (Event event : events) {
+      if (isAttendedByAny(event, attendees)) {
+        busy.add(event.getWhen());
+      }
+    }
+    busy.sort(TimeRange.ORDER_BY_START);
+    return findGaps(busy, request.getDuration());
+  }
+
+  /**
+   * Same as {@link #query(Collection, MeetingRequest)} for the events in {@code index}, but only
+   * reads the days of the request's attendees. Their busy minutes are OR-ed together 64 at a time,
+   * 23 word operations per attendee, and the free ranges are read off the combined day.
+   */
+  public Collection<TimeRange> query(AttendeeIndex index, MeetingRequest request) {
+    if (request.getDuration() > TimeRange.WHOLE_DAY.duration()) {
+      return new ArrayList<>();
+    }
+
+    DayBitset busy = new DayBitset();
+    for (String attendee : request.getAttendees()) {
+      index.markBusy(attendee, busy);
+    }
+    return busy.getFreeRanges(request.getDuration());
+  }
+
+  /**
+   * Same as {@link #queryWithOptionalAttendees(AttendeeIndex, MeetingRequest)} for
+   * {@code events}.
+   */
+  public Collection<TimeRange> queryWithOptionalAttendees(
+      Collection<Event> events, MeetingRequest request) {
+    return queryWithOptionalAttendees(new AttendeeIndex(events), request);
+  }
+
+  /**
+   * Returns the ranges where every required attendee and as many optional attendees as possible
+   * are free for the whole meeting, in chronological order. Any meeting placed inside one of the
+   * ranges is attended by the same optional attendees. With no optional attendees, this is the
+   * same as {@link #query(AttendeeIndex, MeetingRequest)}. A meeting without required attendees
+   * needs at least one optional attendee.
+   *
+   * <p>An event from s to e rules out the meeting starts from s - duration + 1 to e. These ranges
+   * of starts are merged per attendee, and one sweep over their sorted endpoints counts how many
+   * optional attendees each start rules out, so a query takes O(m log m) time for m events of the
+   * attendees, however many optional attendees there are.
+   */
+  public Collection<TimeRange> queryWithOptionalAttendees(
+      AttendeeIndex index, MeetingRequest request) {
+    if (request.getDuration() > TimeRange.WHOLE_DAY.duration()) {
+      return new ArrayList<>();
+    }
+    // An empty meeting still has to fit between events.
+    int duration = (int) Math.max(request.getDuration(), 1);
+    // Meetings start before this minute.
+    int startLimit = TimeRange.WHOLE_DAY.duration() - duration + 1;
+
+    Collection<String> required = request.getAttendees();
+    List<String> optional = new ArrayList<>();
+    int numRanges = 0;
+    for (String attendee : required) {
+      numRanges += index.getBusyRanges(attendee).size();
+    }
+    for (String attendee : request.getOptionalAttendees()) {
+      if (!required.contains(attendee)) {
+        optional.add(attendee);
+        numRanges += index.getBusyRanges(attendee).size();
+      }
+    }
+
+    // Each endpoint is its minute shifted left by 2, plus its kind.
+    long[] endpoints = new long[2 * numRanges];
+    int size = 0;
+    for (String attendee : required) {
+      size = addRuledOutStarts(index.getBusyRanges(attendee), duration, startLimit, REQUIRED_START,
+          endpoints, size);
+    }
+    for (String attendee : optional) {
+      size = addRuledOutStarts(index.getBusyRanges(attendee), duration, startLimit, OPTIONAL_START,
+          endpoints, size);
+    }
+    Arrays.sort(endpoints, 0, size);
+
+    int fewestAbsent = findFewestAbsent(endpoints, size, startLimit);
+    if (fewestAbsent == Integer.MAX_VALUE
+        || (required.isEmpty() && !optional.isEmpty() && fewestAbsent == optional.size())) {
+      return new ArrayList<>();
+    }
+    return findBestRanges(endpoints, size, startLimit, duration, fewestAbsent);
+  }
+
+  /**
+   * Adds the endpoints of the meeting starts ruled out by {@code busy} ranges sorted by start,
+   * merging overlapping ones so that each attendee counts once. Returns the new size.
+   */
+  private static int addRuledOutStarts(List<TimeRange> busy, int duration, int startLimit,
+      int startKind, long[] endpoints, int size) {
+    int mergedStart = -1;
+    int mergedEnd = -1;
+    for (TimeRange range : busy) {
+      int start = Math.max(range.start() - duration + 1, 0);
+      int end = Math.min(range.end(), startLimit);
+      if (start >= end) {
+        continue;
+      }
+      if (start <= mergedEnd) {
+        mergedEnd = Math.max(mergedEnd, end);
+        continue;
+      }
+      if (mergedEnd > mergedStart) {
+        endpoints[size++] = ((long) mergedStart << 2) | startKind;
+        endpoints[size++] = ((long) mergedEnd << 2) | (startKind + 1);
+      }
+      mergedStart = start;
+      mergedEnd = end;
+    }
+    if (mergedEnd > mergedStart) {
+      endpoints[size++] = ((long) mergedStart << 2) | startKind;
+      endpoints[size++] = ((long) mergedEnd << 2) | (startKind + 1);
+    }
+    return size;
+  }
+
+  /**
+   * Returns the fewest optional attendees ruled out at a start that no required attendee rules
+   * out, or {@code Integer.MAX_VALUE} if there is no such start.
+   */
+  private static int findFewestAbsent(long[] endpoints, int size, int startLimit) {
+    int fewestAbsent = Integer.MAX_VALUE;
+    int numRequired = 0;
+    int numOptional = 0;
+    int position = 0;
+    for (int i = 0; i <= size; i++) {
+      int next = i < size ? (int) (endpoints[i] >>> 2) : startLimit;
+      if (next > position && numRequired == 0) {
+        fewestAbsent = Math.min(fewestAbsent, numOptional);
+      }
+      position = next;
+      if (i < size) {
+        int kind = (int) (endpoints[i] & 3);
+        numRequired += kind == REQUIRED_START ? 1 : kind == REQUIRED_END ? -1 : 0;
+        numOptional += kind == OPTIONAL_START ? 1 : kind == OPTIONAL_END ? -1 : 0;
+      }
+    }
+    return fewestAbsent;
+  }
+
+  /**
+   * Returns the ranges covered by meetings starting where no required and {@code fewestAbsent}
+   * optional attendees are ruled out. A run of such starts is cut where another optional
+   * attendee's event begins, so the same attendees can come to any meeting inside a range.
+   */
+  private static List<TimeRange> findBestRanges(long[] endpoints, int size, int startLimit,
+      int duration, int fewestAbsent) {
+    List<TimeRange> available = new ArrayList<>();
+    // The first start of the current run, or -1.
+    int runStart = -1;
+    int numRequired = 0;
+    int numOptional = 0;
+    int position = 0;
+    for (int i = 0; i <= size; i++) {
+      int next = i < size ? (int) (endpoints[i] >>> 2) : startLimit;
+      if (next > position) {
+        boolean isBest = numRequired == 0 && numOptional == fewestAbsent;
+        if (isBest && runStart < 0) {
+          runStart = position;
+        } else if (!isBest && runStart >= 0) {
+          available.add(TimeRange.fromStartEnd(runStart, position - 1 + duration, false));
+          runStart = -1;
+        }
+      }
+      position = next;
+      if (i == size) {
+        break;
+      }
+      int kind = (int) (endpoints[i] & 3);
+      if (kind == OPTIONAL_START && runStart >= 0) {
+        available.add(TimeRange.fromStartEnd(runStart, position - 1 + duration, false));
+        runStart = -1;
+      }
+      numRequired += kind == REQUIRED_START ? 1 : kind == REQUIRED_END ? -1 : 0;
+      numOptional += kind == OPTIONAL_START ? 1 : kind == OPTIONAL_END ? -1 : 0;
+    }
+    if (runStart >= 0) {
+      available.add(TimeRange.fromStartEnd(runStart, startLimit - 1 + duration, false));
+    }
+    return available;
+  }
+
+  /**
+   * Returns an iterator over the free ranges of at least {@code request.getDuration()} minutes
+   * within {@code horizon}, in chronological order. The horizon may be months long, in epoch
+   * minutes; events are read from {@code source} a week at a time as the iterator advances, so
+   * looking for the next available slot only reads the events before it. Optional attendees are
+   * not considered.
+   */
+  public Iterator<TimeRange> queryHorizon(EventSource source, MeetingRequest request,
+      TimeRange horizon) {
+    return new FreeSlotIterator(source, request.getAttendees(), request.getDuration(), horizon,
+        HORIZON_CHUNK_MINUTES);
+  }
+
+  /**
+   * Returns the gaps of at least {@code duration} minutes between {@code busy} ranges sorted by
+   * start. The ranges are swept once, growing the current busy block while they overlap it and
+   * emitting the gap before each new block.
+   */
+  private static List<TimeRange> findGaps(List<TimeRange> busy, long duration) {
+    List<TimeRange> available = new ArrayList<>();
+    // The start of the time not yet known to be busy.
+    int freeStart = TimeRange.START_OF_DAY;
+    for (TimeRange range : busy) {
+      if (range.start() > freeStart) {
+        addIfLongEnough(available, freeStart, range.start(), duration);
+      }
+      freeStart = Math.max(freeStart, range.end());
+    }
+    addIfLongEnough(available, freeStart, TimeRange.WHOLE_DAY.end(), duration);
+    return available;
+  }
+
+  static boolean isAttendedByAny(Event event, Set<String> attendees) {
+    for (String attendee : event.getAttendees()) {
+      if (attendees.contains(attendee)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds the range from {@code start} to {@code end} (exclusive) if it fits the meeting.
+   */
+  private static void addIfLongEnough(List<TimeRange> available, int start, int end,
+      long duration) {
+    if (end - start >= duration && end > start) {
+      available.add(TimeRange.fromStartEnd(start, end, false));
+    }
   }
 }
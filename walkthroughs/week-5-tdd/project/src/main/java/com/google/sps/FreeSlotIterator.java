@@ -0,0 +1,124 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Iterates over the free ranges of a horizon of any length, such as the next few months in epoch
+ * minutes, in chronological order. Events are read from an {@link EventSource} one chunk of the
+ * horizon at a time, and only once the slots before that chunk are used up, so asking for the
+ * first free slot only reads the events up to it. Only one chunk's ranges are held at a time.
+ *
+ * <p>Free time is not cut at midnight: a slot may span days.
+ */
+public final class FreeSlotIterator implements Iterator<TimeRange> {
+  private final EventSource source;
+  private final Set<String> attendees;
+  private final long duration;
+  private final int horizonEnd;
+  private final int chunkMinutes;
+  // The start of the next chunk to read.
+  private int chunkStart;
+  // The busy ranges of the current chunk sorted by start, and the next one to sweep.
+  private List<TimeRange> busy = Collections.emptyList();
+  private int busyIndex;
+  // The start of the time not yet known to be busy.
+  private int freeStart;
+  // The slot next() returns, or null if it has not been found yet.
+  private TimeRange nextSlot;
+
+  /**
+   * Creates an iterator over the ranges of at least {@code duration} minutes within
+   * {@code horizon} when none of {@code attendees} is busy, reading the events of
+   * {@code chunkMinutes} minutes at a time.
+   */
+  public FreeSlotIterator(EventSource source, Collection<String> attendees, long duration,
+      TimeRange horizon, int chunkMinutes) {
+    if (chunkMinutes <= 0) {
+      throw new IllegalArgumentException("chunkMinutes must be positive");
+    }
+    this.source = source;
+    this.attendees = new HashSet<>(attendees);
+    this.duration = duration;
+    this.horizonEnd = horizon.end();
+    this.chunkMinutes = chunkMinutes;
+    chunkStart = horizon.start();
+    freeStart = horizon.start();
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (nextSlot == null && freeStart < horizonEnd) {
+      if (busyIndex < busy.size()) {
+        TimeRange range = busy.get(busyIndex++);
+        if (range.start() > freeStart) {
+          offer(freeStart, Math.min(range.start(), horizonEnd));
+        }
+        freeStart = Math.max(freeStart, range.end());
+      } else if (chunkStart < horizonEnd) {
+        // The free time so far may go on into the next chunk.
+        readChunk();
+      } else {
+        offer(freeStart, horizonEnd);
+        freeStart = horizonEnd;
+      }
+    }
+    return nextSlot != null;
+  }
+
+  @Override
+  public TimeRange next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    TimeRange slot = nextSlot;
+    nextSlot = null;
+    return slot;
+  }
+
+  private void readChunk() {
+    int chunkEnd = (int) Math.min((long) chunkStart + chunkMinutes, horizonEnd);
+    List<TimeRange> ranges = new ArrayList<>();
+    for (Event event : source.getEvents(TimeRange.fromStartEnd(chunkStart, chunkEnd, false))) {
+      if (FindMeetingQuery.isAttendedByAny(event, attendees)) {
+        ranges.add(event.getWhen());
+      }
+    }
+    // Events that began in an earlier chunk were swept then, so freeStart is past their ends and
+    // the sweep can go on with this chunk's ranges alone.
+    ranges.sort(TimeRange.ORDER_BY_START);
+    busy = ranges;
+    busyIndex = 0;
+    chunkStart = chunkEnd;
+  }
+
+  /**
+   * Makes the range from {@code start} to {@code end} (exclusive) the next slot if it fits the
+   * meeting.
+   */
+  private void offer(int start, int end) {
+    if (end - start >= duration && end > start) {
+      nextSlot = TimeRange.fromStartEnd(start, end, false);
+    }
+  }
+}
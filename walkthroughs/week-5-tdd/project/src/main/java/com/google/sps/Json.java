@@ -0,0 +1,136 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the {@code Gson} instance shared by the servlets. {@code Gson} is thread-safe, so one
+ * instance can serve every request, and {@code TimeRange} and {@code Event} get hand-written type
+ * adapters so that they are converted without reflection. The JSON is the same as what a default
+ * {@code Gson} produces.
+ */
+public final class Json {
+  public static final Gson GSON = new GsonBuilder()
+      .registerTypeAdapter(TimeRange.class, new TimeRangeAdapter())
+      .registerTypeAdapter(Event.class, new EventAdapter())
+      .create();
+
+  private Json() {
+    // Disallow instances.
+  }
+
+  private static final class TimeRangeAdapter extends TypeAdapter<TimeRange> {
+    @Override
+    public void write(JsonWriter out, TimeRange range) throws IOException {
+      if (range == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginObject();
+      out.name("start").value(range.start());
+      out.name("duration").value(range.duration());
+      out.endObject();
+    }
+
+    @Override
+    public TimeRange read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      int start = 0;
+      int duration = 0;
+      in.beginObject();
+      while (in.hasNext()) {
+        switch (in.nextName()) {
+          case "start":
+            start = in.nextInt();
+            break;
+          case "duration":
+            duration = in.nextInt();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return TimeRange.fromStartDuration(start, duration);
+    }
+  }
+
+  private static final class EventAdapter extends TypeAdapter<Event> {
+    private final TimeRangeAdapter timeRangeAdapter = new TimeRangeAdapter();
+
+    @Override
+    public void write(JsonWriter out, Event event) throws IOException {
+      if (event == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginObject();
+      out.name("title").value(event.getTitle());
+      out.name("when");
+      timeRangeAdapter.write(out, event.getWhen());
+      out.name("attendees").beginArray();
+      for (String attendee : event.getAttendees()) {
+        out.value(attendee);
+      }
+      out.endArray();
+      out.endObject();
+    }
+
+    @Override
+    public Event read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      String title = null;
+      TimeRange when = null;
+      List<String> attendees = new ArrayList<>();
+      in.beginObject();
+      while (in.hasNext()) {
+        switch (in.nextName()) {
+          case "title":
+            title = in.nextString();
+            break;
+          case "when":
+            when = timeRangeAdapter.read(in);
+            break;
+          case "attendees":
+            in.beginArray();
+            while (in.hasNext()) {
+              attendees.add(in.nextString());
+            }
+            in.endArray();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return new Event(title, when, attendees);
+    }
+  }
+}
@@ -14,11 +14,12 @@
 
 package com.google.sps.servlets;
 
+import com.google.sps.AttendeeIndex;
 import com.google.sps.Events;
 import com.google.sps.FindMeetingQuery;
+import com.google.sps.Json;
 import com.google.sps.MeetingRequest;
 import com.google.sps.TimeRange;
-import com.google.gson.Gson;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
@@ -29,20 +30,26 @@ import javax.servlet.http.HttpServletResponse;
 
 @WebServlet("/query")
 public class QueryServlet extends HttpServlet {
+  // The events never change, so they are indexed once and only read afterwards.
+  private AttendeeIndex index;
+
   @Override
-  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    Gson gson = new Gson();
+  public void init() {
+    index = new AttendeeIndex(Arrays.asList(Events.events));
+  }
 
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     // Convert the JSON to an instance of MeetingRequest.
-    MeetingRequest meetingRequest = gson.fromJson(request.getReader(), MeetingRequest.class);
+    MeetingRequest meetingRequest = Json.GSON.fromJson(request.getReader(), MeetingRequest.class);
 
     // Find the possible meeting times.
     FindMeetingQuery findMeetingQuery = new FindMeetingQuery();
     Collection<TimeRange> answer =
-        findMeetingQuery.query(Arrays.asList(Events.events), meetingRequest);
+        findMeetingQuery.queryWithOptionalAttendees(index, meetingRequest);
 
     // Convert the times to JSON
-    String jsonResponse = gson.toJson(answer);
+    String jsonResponse = Json.GSON.toJson(answer);
 
     // Send the JSON back as the response
     response.setContentType("application/json");
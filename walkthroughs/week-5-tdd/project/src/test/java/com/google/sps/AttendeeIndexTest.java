@@ -0,0 +1,102 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class AttendeeIndexTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+  private static final String PERSON_C = "Person C";
+
+  private static final int TIME_0800AM = TimeRange.getTimeInMinutes(8, 0);
+  private static final int TIME_0900AM = TimeRange.getTimeInMinutes(9, 0);
+  private static final int TIME_1000AM = TimeRange.getTimeInMinutes(10, 0);
+  private static final int TIME_1100AM = TimeRange.getTimeInMinutes(11, 0);
+
+  private static final int DURATION_30_MINUTES = 30;
+  private static final int DURATION_1_HOUR = 60;
+
+  private static final Event EVENT_1 = new Event("Event 1",
+      TimeRange.fromStartDuration(TIME_1000AM, DURATION_1_HOUR), Arrays.asList(PERSON_A));
+  private static final Event EVENT_2 = new Event("Event 2",
+      TimeRange.fromStartDuration(TIME_0800AM, DURATION_30_MINUTES),
+      Arrays.asList(PERSON_A, PERSON_B));
+  private static final Event EVENT_3 = new Event("Event 3",
+      TimeRange.fromStartDuration(TIME_0900AM, DURATION_1_HOUR), Arrays.asList(PERSON_C));
+
+  @Test
+  public void rangesAreSortedByStart() {
+    AttendeeIndex index = new AttendeeIndex(Arrays.asList(EVENT_1, EVENT_2, EVENT_3));
+
+    Assert.assertEquals(Arrays.asList(EVENT_2.getWhen(), EVENT_1.getWhen()),
+        index.getBusyRanges(PERSON_A));
+    Assert.assertEquals(Arrays.asList(EVENT_2.getWhen()), index.getBusyRanges(PERSON_B));
+    Assert.assertEquals(Collections.emptyList(), index.getBusyRanges("Person D"));
+  }
+
+  @Test
+  public void removeOnlyTouchesTheEvent() {
+    // Two events at the same time: removing one keeps the other.
+    Event sameTime = new Event("Same time", EVENT_2.getWhen(), Arrays.asList(PERSON_A));
+    AttendeeIndex index = new AttendeeIndex(Arrays.asList(EVENT_1, EVENT_2, sameTime));
+
+    Assert.assertTrue(index.remove(EVENT_2));
+
+    Assert.assertEquals(Arrays.asList(EVENT_2.getWhen(), EVENT_1.getWhen()),
+        index.getBusyRanges(PERSON_A));
+    Assert.assertEquals(Collections.emptyList(), index.getBusyRanges(PERSON_B));
+    DayBitset day = new DayBitset();
+    index.markBusy(PERSON_A, day);
+    Assert.assertEquals(Arrays.asList(
+        TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0800AM, false),
+        TimeRange.fromStartEnd(TIME_0800AM + DURATION_30_MINUTES, TIME_1000AM, false),
+        TimeRange.fromStartEnd(TIME_1100AM, TimeRange.END_OF_DAY, true)),
+        day.getFreeRanges(1));
+    Assert.assertFalse(index.remove(EVENT_3));
+  }
+
+  @Test
+  public void queryMatchesEventScan() {
+    // Person C is not requested, so their event does not count.
+    // Events  :       |--A/B--|     |--C--|--A--|
+    // Day     : |---------------------------------------------|
+    // Options : |-----|       |-----------|     |-------------|
+    Collection<Event> events = Arrays.asList(EVENT_1, EVENT_2, EVENT_3);
+    AttendeeIndex index = new AttendeeIndex(Collections.emptyList());
+    for (Event event : events) {
+      index.add(event);
+    }
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A, PERSON_B), DURATION_30_MINUTES);
+    FindMeetingQuery query = new FindMeetingQuery();
+
+    Collection<TimeRange> actual = query.query(index, request);
+    Collection<TimeRange> expected = Arrays.asList(
+        TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0800AM, false),
+        TimeRange.fromStartEnd(TIME_0800AM + DURATION_30_MINUTES, TIME_1000AM, false),
+        TimeRange.fromStartEnd(TIME_1100AM, TimeRange.END_OF_DAY, true));
+
+    Assert.assertEquals(expected, actual);
+    Assert.assertEquals(query.query(events, request), actual);
+  }
+}
@@ -0,0 +1,87 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class DayBitsetTest {
+  private static final int TIME_0100AM = TimeRange.getTimeInMinutes(1, 0);
+  private static final int TIME_0104AM = TimeRange.getTimeInMinutes(1, 4);
+  private static final int TIME_0300AM = TimeRange.getTimeInMinutes(3, 0);
+
+  @Test
+  public void emptyDayIsFree() {
+    DayBitset day = new DayBitset();
+
+    Assert.assertEquals(Arrays.asList(TimeRange.WHOLE_DAY), day.getFreeRanges(1));
+  }
+
+  @Test
+  public void busyRangesAcrossWords() {
+    // 01:04 is minute 64, the first minute of the second word.
+    // Busy    :     |--|                 |-------------------|
+    // Day     : |-------------------------------------------|
+    // Options : |---|  |-----------------|
+    DayBitset day = new DayBitset();
+    day.setBusy(TimeRange.fromStartEnd(TIME_0100AM, TIME_0104AM, false));
+    day.setBusy(TimeRange.fromStartEnd(TIME_0300AM, TimeRange.END_OF_DAY, true));
+
+    Collection<TimeRange> expected = Arrays.asList(
+        TimeRange.fromStartEnd(TimeRange.START_OF_DAY, TIME_0100AM, false),
+        TimeRange.fromStartEnd(TIME_0104AM, TIME_0300AM, false));
+
+    Assert.assertEquals(expected, day.getFreeRanges(1));
+  }
+
+  @Test
+  public void wholeDayBusy() {
+    DayBitset day = new DayBitset();
+    day.setBusy(TimeRange.WHOLE_DAY);
+
+    Assert.assertEquals(Collections.emptyList(), day.getFreeRanges(1));
+  }
+
+  @Test
+  public void matchesSweepOnRandomEvents() {
+    Random random = new Random(42);
+    FindMeetingQuery query = new FindMeetingQuery();
+    for (int i = 0; i < 100; i++) {
+      List<Event> events = new ArrayList<>();
+      for (int j = 0; j < 20; j++) {
+        int start = random.nextInt(TimeRange.WHOLE_DAY.duration());
+        int duration = 1 + random.nextInt(TimeRange.WHOLE_DAY.duration() - start);
+        String attendee = "Person " + random.nextInt(5);
+        events.add(new Event("Event " + j, TimeRange.fromStartDuration(start, duration),
+            Arrays.asList(attendee)));
+      }
+      MeetingRequest request =
+          new MeetingRequest(Arrays.asList("Person 0", "Person 1"), 1 + random.nextInt(60));
+
+      Assert.assertEquals(
+          query.query(events, request), query.query(new AttendeeIndex(events), request));
+    }
+  }
+}
@@ -0,0 +1,153 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class FreeSlotIteratorTest {
+  private static final String PERSON_A = "Person A";
+  private static final String PERSON_B = "Person B";
+
+  private static final int DAY = TimeRange.WHOLE_DAY.duration();
+  // 2020-01-01T00:00Z in epoch minutes.
+  private static final int JAN_1 = 26297280;
+  private static final int JAN_2 = JAN_1 + DAY;
+  private static final int JAN_3 = JAN_2 + DAY;
+  private static final int HOUR = 60;
+
+  private static final int DURATION_30_MINUTES = 30;
+  private static final int DURATION_1_HOUR = 60;
+
+  /**
+   * Serves {@code events} and records the ranges asked for.
+   */
+  private static final class ListSource implements EventSource {
+    private final Collection<Event> events;
+    private final List<TimeRange> requests = new ArrayList<>();
+
+    ListSource(Event... events) {
+      this.events = Arrays.asList(events);
+    }
+
+    @Override
+    public Collection<Event> getEvents(TimeRange range) {
+      requests.add(range);
+      return events.stream()
+          .filter(event -> event.getWhen().overlaps(range))
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static List<TimeRange> drain(Iterator<TimeRange> slots) {
+    List<TimeRange> drained = new ArrayList<>();
+    slots.forEachRemaining(drained::add);
+    return drained;
+  }
+
+  @Test
+  public void slotsSpanMidnight() {
+    // Events  :    |-A-|            |-B-|
+    // Days    : |---Jan 1---|---Jan 2---|---Jan 3---|
+    // Options : |-1|   |-------2--------|
+    //                                   |-----3-----|
+    ListSource source = new ListSource(
+        new Event("Event 1", TimeRange.fromStartDuration(JAN_1 + 9 * HOUR, HOUR),
+            Arrays.asList(PERSON_A)),
+        new Event("Event 2", TimeRange.fromStartDuration(JAN_2 + 22 * HOUR, 2 * HOUR),
+            Arrays.asList(PERSON_B)));
+    TimeRange horizon = TimeRange.fromStartDuration(JAN_1, 3 * DAY);
+
+    List<TimeRange> actual = drain(new FreeSlotIterator(
+        source, Arrays.asList(PERSON_A, PERSON_B), DURATION_1_HOUR, horizon, DAY));
+    List<TimeRange> expected = Arrays.asList(
+        TimeRange.fromStartEnd(JAN_1, JAN_1 + 9 * HOUR, false),
+        TimeRange.fromStartEnd(JAN_1 + 10 * HOUR, JAN_2 + 22 * HOUR, false),
+        TimeRange.fromStartEnd(JAN_3, JAN_3 + DAY, false));
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void eventAcrossChunksCountsOnce() {
+    // The event overlaps both chunks, so the source returns it twice.
+    ListSource source = new ListSource(
+        new Event("Event 1", TimeRange.fromStartEnd(JAN_1 + 20 * HOUR, JAN_2 + 4 * HOUR, false),
+            Arrays.asList(PERSON_A)),
+        new Event("Event 2", TimeRange.fromStartDuration(JAN_2 + 2 * HOUR, HOUR),
+            Arrays.asList(PERSON_A)));
+    TimeRange horizon = TimeRange.fromStartDuration(JAN_1, 2 * DAY);
+
+    List<TimeRange> actual = drain(new FreeSlotIterator(
+        source, Arrays.asList(PERSON_A), DURATION_30_MINUTES, horizon, DAY));
+    List<TimeRange> expected = Arrays.asList(
+        TimeRange.fromStartEnd(JAN_1, JAN_1 + 20 * HOUR, false),
+        TimeRange.fromStartEnd(JAN_2 + 4 * HOUR, JAN_3, false));
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void readsOnlyUpToTheNextSlot() {
+    // Person A is busy for the first two weeks of a 90 day horizon, and for an hour on day 20.
+    ListSource source = new ListSource(
+        new Event("Vacation", TimeRange.fromStartDuration(JAN_1, 14 * DAY),
+            Arrays.asList(PERSON_A)),
+        new Event("Offsite", TimeRange.fromStartDuration(JAN_1 + 20 * DAY, HOUR),
+            Arrays.asList(PERSON_A)));
+    MeetingRequest request = new MeetingRequest(Arrays.asList(PERSON_A), DURATION_1_HOUR);
+    TimeRange horizon = TimeRange.fromStartDuration(JAN_1, 90 * DAY);
+
+    Iterator<TimeRange> slots = new FindMeetingQuery().queryHorizon(source, request, horizon);
+
+    // The first slot ends in the third week, so only three weeks are read to find it.
+    Assert.assertEquals(TimeRange.fromStartEnd(JAN_1 + 14 * DAY, JAN_1 + 20 * DAY, false),
+        slots.next());
+    Assert.assertEquals(3, source.requests.size());
+
+    Assert.assertEquals(
+        TimeRange.fromStartEnd(JAN_1 + 20 * DAY + HOUR, JAN_1 + 90 * DAY, false), slots.next());
+    Assert.assertFalse(slots.hasNext());
+    Assert.assertEquals(13, source.requests.size());
+  }
+
+  @Test
+  public void matchesQueryForOneDay() {
+    ListSource source = new ListSource(
+        new Event("Event 1", TimeRange.fromStartDuration(8 * HOUR, DURATION_30_MINUTES),
+            Arrays.asList(PERSON_A)),
+        new Event("Event 2", TimeRange.fromStartDuration(9 * HOUR, DURATION_1_HOUR),
+            Arrays.asList(PERSON_B)),
+        new Event("Event 3", TimeRange.fromStartDuration(9 * HOUR + 30, DURATION_1_HOUR),
+            Arrays.asList(PERSON_A)));
+    MeetingRequest request =
+        new MeetingRequest(Arrays.asList(PERSON_A, PERSON_B), DURATION_30_MINUTES);
+    FindMeetingQuery query = new FindMeetingQuery();
+
+    List<TimeRange> actual = drain(query.queryHorizon(source, request, TimeRange.WHOLE_DAY));
+
+    Assert.assertEquals(query.query(source.events, request), actual);
+  }
+}
@@ -0,0 +1,45 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps;
+
+import com.google.gson.Gson;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** */
+@RunWith(JUnit4.class)
+public final class JsonTest {
+  private static final TimeRange RANGE = TimeRange.fromStartDuration(540, 30);
+  private static final Event EVENT = new Event("Event 1", RANGE, Arrays.asList("Person A"));
+
+  @Test
+  public void timeRangeMatchesReflectiveGson() {
+    Assert.assertEquals(new Gson().toJson(RANGE), Json.GSON.toJson(RANGE));
+  }
+
+  @Test
+  public void eventMatchesReflectiveGson() {
+    Assert.assertEquals(new Gson().toJson(EVENT), Json.GSON.toJson(EVENT));
+  }
+
+  @Test
+  public void roundTrip() {
+    Assert.assertEquals(RANGE, Json.GSON.fromJson(Json.GSON.toJson(RANGE), TimeRange.class));
+    Assert.assertEquals(EVENT, Json.GSON.fromJson(Json.GSON.toJson(EVENT), Event.class));
+  }
+}